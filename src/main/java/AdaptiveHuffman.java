@@ -0,0 +1,201 @@
+/*************************************************************************
+ *  Compilation:  javac AdaptiveHuffman.java
+ *  Execution:    java SchubsH -a - < input > input.hh
+ *                java Deschubs - < input.hh > input
+ *
+ *  Description:  One pass adaptive Huffman coding (the FGK algorithm), used
+ *                by SchubsH -a for pipes and inputs of unknown length.
+ *
+ *  Design: Encoder and decoder start from the same tree holding only the
+ *          NYT ("not yet transmitted") leaf and update it identically after
+ *          every symbol, so no code table or length is ever sent. A symbol
+ *          seen before is sent as its current code; a new one as the code of
+ *          NYT followed by the raw 9-bit symbol, after which NYT splits into
+ *          a new NYT and a leaf for the symbol. Symbol 256 marks the end of
+ *          the stream.
+ *
+ *          The tree keeps the sibling property: nodes are numbered so that
+ *          weights never decrease with the number and siblings are adjacent.
+ *          Before a weight is incremented the node is swapped with the highest
+ *          numbered node of the same weight (its block leader), which keeps
+ *          the property and makes the tree a Huffman tree for the counts so far.
+ *
+ *  Trade Off: No header and no first pass, at the price of updating the tree
+ *          for every byte, which makes it several times slower than the
+ *          static codes of SchubsH, and early symbols get longer codes
+ *          while the counts are still small.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public final class AdaptiveHuffman {
+
+    private static final int EOF = 256; // end of stream symbol
+    private static final int NYT = 257; // symbol of the not yet transmitted leaf
+    private static final int SYMBOL_BITS = 9; // raw width of a new symbol
+    private static final int NODES = 2 * (NYT + 1) - 1; // leaves for 0..256 and NYT
+    private static final int ROOT = NODES - 1;
+
+    // node number -> contents, numbers are the implicit sibling order
+    private final long[] weight = new long[NODES];
+    private final int[] parent = new int[NODES];
+    private final int[] left = new int[NODES]; // -1 for leaves
+    private final int[] right = new int[NODES];
+    private final int[] symbol = new int[NODES]; // -1 for internal nodes
+
+    // symbol -> node number of its leaf, -1 if not yet seen
+    private final int[] leaf = new int[NYT + 1];
+
+    // scratch space for the bits of one code, leaf to root
+    private final int[] path = new int[NODES];
+
+    private AdaptiveHuffman() {
+        java.util.Arrays.fill(leaf, -1);
+        java.util.Arrays.fill(left, -1);
+        java.util.Arrays.fill(right, -1);
+        java.util.Arrays.fill(symbol, -1);
+        parent[ROOT] = -1;
+        symbol[ROOT] = NYT;
+        leaf[NYT] = ROOT;
+    }
+
+    /**
+     * Compress a stream in one pass, writing the .hh header first.
+     */
+    public static void compress(InputStream in, OutputStream os) throws IOException {
+        BitWriter out = new BitWriter(os);
+        out.write(SchubsH.MAGIC, 16);
+        out.write(SchubsH.VERSION_ADAPTIVE, 8);
+
+        AdaptiveHuffman tree = new AdaptiveHuffman();
+        byte[] buf = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            for (int i = 0; i < n; i++)
+                tree.encode(buf[i] & 0xFF, out);
+        }
+        tree.encode(EOF, out);
+        out.flush();
+    }
+
+    /**
+     * Expand a stream written by compress, positioned after the .hh header.
+     */
+    public static void expand(BitReader in, OutputStream os) throws IOException {
+        AdaptiveHuffman tree = new AdaptiveHuffman();
+        byte[] buf = new byte[1 << 16];
+        int n = 0;
+        while (true) {
+            int c = tree.decode(in);
+            if (c == EOF)
+                break;
+            buf[n++] = (byte) c;
+            if (n == buf.length) {
+                os.write(buf, 0, n);
+                n = 0;
+            }
+        }
+        os.write(buf, 0, n);
+        os.flush();
+    }
+
+    // write the current code of c, escaping through NYT if c is new, then update
+    private void encode(int c, BitWriter out) throws IOException {
+        int x = leaf[c] >= 0 ? leaf[c] : leaf[NYT];
+        int depth = 0;
+        while (x != ROOT) {
+            path[depth++] = right[parent[x]] == x ? 1 : 0;
+            x = parent[x];
+        }
+        while (depth > 0)
+            out.write(path[--depth], 1);
+        if (leaf[c] < 0)
+            out.write(c, SYMBOL_BITS);
+        update(c);
+    }
+
+    // walk down from the root to a leaf, read the raw symbol after NYT, then update
+    private int decode(BitReader in) throws IOException {
+        int x = ROOT;
+        while (left[x] >= 0)
+            x = in.readBits(1) == 1 ? right[x] : left[x];
+        int c = symbol[x];
+        if (c == NYT) {
+            c = in.readBits(SYMBOL_BITS);
+            if (c > EOF || leaf[c] >= 0)
+                throw new IOException("Invalid adaptive Huffman stream");
+        }
+        update(c);
+        return c;
+    }
+
+    // add one to the count of c, keeping the sibling property
+    private void update(int c) {
+        int q;
+        if (leaf[c] < 0) {
+            // NYT becomes an internal node with a new NYT on the left and the new leaf on the right
+            int old = leaf[NYT];
+            int nyt = old - 2, fresh = old - 1;
+            symbol[old] = -1;
+            left[old] = nyt;
+            right[old] = fresh;
+            parent[nyt] = old;
+            parent[fresh] = old;
+            symbol[nyt] = NYT;
+            symbol[fresh] = c;
+            leaf[NYT] = nyt;
+            leaf[c] = fresh;
+            q = fresh;
+        } else {
+            q = leaf[c];
+        }
+
+        while (q != ROOT) {
+            // the highest numbered node of the same weight leads the block
+            int leader = q;
+            while (leader + 1 < ROOT && weight[leader + 1] == weight[q])
+                leader++;
+            if (leader != q && leader != parent[q]) {
+                swap(q, leader);
+                q = leader;
+            }
+            weight[q]++;
+            q = parent[q];
+        }
+        weight[ROOT]++;
+    }
+
+    // exchange the subtrees at node numbers a and b, the numbers stay with their positions
+    private void swap(int a, int b) {
+        int t = symbol[a];
+        symbol[a] = symbol[b];
+        symbol[b] = t;
+        t = left[a];
+        left[a] = left[b];
+        left[b] = t;
+        t = right[a];
+        right[a] = right[b];
+        right[b] = t;
+        long w = weight[a];
+        weight[a] = weight[b];
+        weight[b] = w;
+        adopt(a);
+        adopt(b);
+    }
+
+    // point the leaf index or the children of node x back at x
+    private void adopt(int x) {
+        if (left[x] < 0) {
+            leaf[symbol[x]] = x;
+        } else {
+            parent[left[x]] = x;
+            parent[right[x]] = x;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*************************************************************************
+ *  Compilation:  javac ArchiveDirectory.java
+ *
+ *  Description:  The central directory of a .zh archive: name, offsets,
+ *                sizes and codec of every entry, shared by SchubsArc and
+ *                Deschubs.
+ *
+ *  Design: SchubsArc writes the entries back to back as before (int name
+ *          length, separator, name, separator, long size, separator, data),
+ *          then the directory, then a fixed size footer. Reading the footer
+ *          from the end of the file finds the directory with one seek, so
+ *          listing an archive or extracting one entry never reads the other
+ *          entries' data.
+ *
+ *  Directory: for every entry
+ *            int     name length, then the name, 8 bits per char
+ *            long    offset of the entry header
+ *            long    offset of the entry data
+ *            long    size of the data
+ *            long    size of the original file
+ *            byte    codec of the data
+ *  Footer:   long    offset of the directory
+ *            int     number of entries
+ *            int     MAGIC
+ *
+ *          The parser reads through a Source, positional reads on a
+ *          FileChannel or slices of a memory mapped archive (see ArchiveReader).
+ *
+ *          Entry names are relative and never climb out with .., so extracting
+ *          an archive cannot write outside the directory it is extracted in.
+ *
+ *  Trade Off: Archives without the footer, written before the directory
+ *          existed, are still read: their entry headers are walked one after
+ *          the other, skipping the data, which costs one small read per entry.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ArchiveDirectory {
+
+    static final int MAGIC = 0x5A484344; // "ZHCD"
+    static final int FOOTER_SIZE = 16;
+
+    // codecs of entry data
+    static final int CODEC_HUFFMAN = 1; // a .hh file written by SchubsH
+
+    // size of a legacy entry header around the name: int length, separator, separator, long size, separator
+    static final int HEADER_SIZE = 15;
+
+    // one archived file
+    static final class Entry {
+        final String name;
+        final long offset; // entry header
+        final long dataOffset;
+        final long size;
+        final long originalSize; // -1 if unknown, as in legacy archives
+        final int codec;
+
+        Entry(String name, long offset, long dataOffset, long size, long originalSize, int codec) {
+            this.name = name;
+            this.offset = offset;
+            this.dataOffset = dataOffset;
+            this.size = size;
+            this.originalSize = originalSize;
+            this.codec = codec;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    List<Entry> entries() {
+        return entries;
+    }
+
+    // the entry of that name, null if there is none
+    Entry find(String name) {
+        for (Entry entry : entries)
+            if (entry.name.equals(name))
+                return entry;
+        return null;
+    }
+
+    // directory and footer, at offset in the archive
+    void write(DataOutput out, long offset) throws IOException {
+        for (Entry entry : entries) {
+            out.writeInt(entry.name.length());
+            writeName(entry.name, out);
+            out.writeLong(entry.offset);
+            out.writeLong(entry.dataOffset);
+            out.writeLong(entry.size);
+            out.writeLong(entry.originalSize);
+            out.writeByte(entry.codec);
+        }
+        out.writeLong(offset);
+        out.writeInt(entries.size());
+        out.writeInt(MAGIC);
+    }
+
+    // whether a name stays inside the directory it is extracted to: not absolute, and no .. climbs out of it
+    static boolean isSafeName(String name) {
+        if (name.startsWith("/") || name.startsWith("\\") || name.length() > 1 && name.charAt(1) == ':')
+            return false;
+        int depth = 0;
+        for (String part : name.split("[/\\\\]")) {
+            if (part.equals(".."))
+                depth--;
+            else if (!part.isEmpty() && !part.equals("."))
+                depth++;
+            if (depth < 0)
+                return false;
+        }
+        return depth > 0;
+    }
+
+    // the name a file is archived under: as given if it is plain, else normalized without its root and
+    // leading .., so one file always gets the same name
+    static String entryName(String path) {
+        if (isSafeName(path) && isPlain(path))
+            return path;
+        ArrayDeque<String> parts = new ArrayDeque<>();
+        for (String part : path.split("[/\\\\]")) {
+            if (part.equals("..")) {
+                if (!parts.isEmpty())
+                    parts.removeLast();
+            } else if (!part.isEmpty() && !part.equals(".") && !(parts.isEmpty() && part.endsWith(":"))) {
+                parts.addLast(part);
+            }
+        }
+        return String.join("/", parts);
+    }
+
+    // whether every part of a name is a file or directory name, no ., .. or empty parts
+    private static boolean isPlain(String name) {
+        for (String part : name.split("[/\\\\]", -1))
+            if (part.isEmpty() || part.equals(".") || part.equals(".."))
+                return false;
+        return true;
+    }
+
+    // names are stored 8 bits per char
+    static void writeName(String name, DataOutput out) throws IOException {
+        for (int i = 0; i < name.length(); i++)
+            if (name.charAt(i) > 0xFF)
+                throw new IllegalArgumentException("File name " + name + " is not 8-bit");
+        out.writeBytes(name);
+    }
+
+    // bytes of an archive by position
+    interface Source {
+        long size() throws IOException;
+
+        // size bytes at position, ready for reading
+        ByteBuffer read(long position, int size) throws IOException;
+    }
+
+    /**
+     * The directory of an archive, from its footer or, for archives without
+     * one, by walking the entry headers.
+     *
+     * @throws IOException if the archive is damaged
+     */
+    static ArchiveDirectory read(FileChannel in) throws IOException {
+        return read(new Source() {
+            public long size() throws IOException {
+                return in.size();
+            }
+
+            public ByteBuffer read(long position, int size) throws IOException {
+                return ArchiveDirectory.read(in, position, size);
+            }
+        });
+    }
+
+    /**
+     * The directory of a whole archive in memory, such as a mapping of the
+     * file, parsed from slices of it.
+     *
+     * @throws IOException if the archive is damaged
+     */
+    static ArchiveDirectory read(ByteBuffer archive) throws IOException {
+        return read(new Source() {
+            public long size() {
+                return archive.limit();
+            }
+
+            public ByteBuffer read(long position, int size) throws IOException {
+                if (position < 0 || position + size > archive.limit())
+                    throw new EOFException("Unexpected end of archive");
+                return slice(archive, position, size);
+            }
+        });
+    }
+
+    static ArchiveDirectory read(Source in) throws IOException {
+        ArchiveDirectory directory = readFooter(in);
+        return directory != null ? directory : scan(in);
+    }
+
+    // a view of size bytes at position of buffer, sharing its content
+    static ByteBuffer slice(ByteBuffer buffer, long position, long size) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit((int) (position + size));
+        view.position((int) position);
+        return view.slice();
+    }
+
+    // the directory the footer points to, null if there is no valid footer
+    private static ArchiveDirectory readFooter(Source in) throws IOException {
+        long size = in.size();
+        if (size < FOOTER_SIZE)
+            return null;
+        ByteBuffer footer = in.read(size - FOOTER_SIZE, FOOTER_SIZE);
+        long offset = footer.getLong();
+        int count = footer.getInt();
+        if (footer.getInt() != MAGIC || offset < 0 || offset > size - FOOTER_SIZE || count < 0)
+            return null;
+
+        // a legacy archive may end in the magic by chance, so everything has to fit exactly
+        ByteBuffer buffer = in.read(offset, (int) Math.min(Integer.MAX_VALUE, size - FOOTER_SIZE - offset));
+        ArchiveDirectory directory = new ArchiveDirectory();
+        try {
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining())
+                    return null;
+                StringBuilder name = new StringBuilder();
+                for (int c = 0; c < length; c++)
+                    name.append((char) (buffer.get() & 0xFF));
+                long entryOffset = buffer.getLong();
+                long dataOffset = buffer.getLong();
+                long entrySize = buffer.getLong();
+                long originalSize = buffer.getLong();
+                int codec = buffer.get() & 0xFF;
+                if (dataOffset < 0 || entrySize < 0 || dataOffset + entrySize > offset)
+                    return null;
+                if (!isSafeName(name.toString()))
+                    throw new IOException("Unsafe entry name " + name);
+                directory.add(new Entry(name.toString(), entryOffset, dataOffset, entrySize, originalSize, codec));
+            }
+        } catch (java.nio.BufferUnderflowException e) {
+            return null;
+        }
+        return buffer.hasRemaining() ? null : directory;
+    }
+
+    // walk the entry headers of an archive without a directory
+    private static ArchiveDirectory scan(Source in) throws IOException {
+        ArchiveDirectory directory = new ArchiveDirectory();
+        long size = in.size();
+        long offset = 0;
+        while (offset < size) {
+            int length = in.read(offset, 4).getInt();
+            if (length < 0 || offset + HEADER_SIZE + length > size)
+                throw new IOException("Invalid archive entry at " + offset);
+            ByteBuffer header = in.read(offset + 5, length + 10);
+            StringBuilder name = new StringBuilder();
+            for (int c = 0; c < length; c++)
+                name.append((char) (header.get() & 0xFF));
+            header.get(); // separator
+            long entrySize = header.getLong();
+            long dataOffset = offset + HEADER_SIZE + length;
+            if (entrySize < 0 || dataOffset + entrySize > size)
+                throw new IOException("Invalid archive entry at " + offset);
+            if (!isSafeName(name.toString()))
+                throw new IOException("Unsafe entry name " + name);
+            directory.add(new Entry(name.toString(), offset, dataOffset, entrySize, -1, CODEC_HUFFMAN));
+            offset = dataOffset + entrySize;
+        }
+        return directory;
+    }
+
+    // read size bytes of a file at position into a new buffer ready for reading
+    static ByteBuffer read(FileChannel in, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining())
+            if (in.read(buffer, position + buffer.position()) == -1)
+                throw new EOFException("Unexpected end of file");
+        buffer.flip();
+        return buffer;
+    }
+}
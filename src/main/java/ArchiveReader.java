@@ -0,0 +1,139 @@
+/*************************************************************************
+ *  Compilation:  javac ArchiveReader.java
+ *
+ *  Description:  Random access to the entries of a .zh archive through a
+ *                memory mapping of the file.
+ *
+ *  Design: The archive is mapped once with FileChannel.map, and the footer,
+ *          the directory and the entry data are all read from the mapping.
+ *          An entry is handed out as a read only slice of the mapping, which
+ *          shares its memory rather than copying it, or as an InputStream over
+ *          that slice for the decoders. A service pulling small entries out of
+ *          a large archive again and again pays neither a read call nor a
+ *          buffer copy per entry, only the page faults of the bytes it touches.
+ *
+ *  Trade Off: A ByteBuffer is limited to 2 GB, so larger archives read their
+ *          directory with positional reads and map each entry on its own. A
+ *          mapping stays valid after close and keeps the file locked on
+ *          Windows until the buffer is garbage collected, so an archive that
+ *          is to be replaced should not be held open by a reader.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public final class ArchiveReader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map; // the whole archive, null if it is too large for one mapping
+    private final ArchiveDirectory directory;
+
+    /**
+     * Open and map an archive and read its directory.
+     *
+     * @throws IOException if the archive cannot be read or is damaged
+     */
+    public ArchiveReader(String archive) throws IOException {
+        channel = FileChannel.open(Paths.get(archive), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                directory = ArchiveDirectory.read(map);
+            } else {
+                map = null;
+                directory = ArchiveDirectory.read(channel);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    ArchiveDirectory directory() {
+        return directory;
+    }
+
+    /**
+     * The data of an entry as a read only view of the archive.
+     */
+    ByteBuffer slice(ArchiveDirectory.Entry entry) throws IOException {
+        if (map != null)
+            return ArchiveDirectory.slice(map, entry.dataOffset, entry.size).asReadOnlyBuffer();
+        return channel.map(FileChannel.MapMode.READ_ONLY, entry.dataOffset, entry.size);
+    }
+
+    /**
+     * The data of an entry as a stream, read straight from the mapping.
+     */
+    InputStream open(ArchiveDirectory.Entry entry) throws IOException {
+        return new BufferInputStream(slice(entry));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // reads a buffer from its position to its limit
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*************************************************************************
+ *  Compilation:  javac BitReader.java
+ *
+ *  Description:  Reads bits from an input stream, most significant bit
+ *                first, in the same order BinaryOut writes them.
+ *
+ *  Design: Unlike BinaryIn, which hands out one bit per call, BitReader keeps
+ *          up to 64 bits in a long and lets the caller peek at the next n bits
+ *          without consuming them. A Huffman decoder can then index a table
+ *          with the next 11 bits and skip only as many as the code it found.
+ *          Past the end of the stream peek returns 0s, but skipping into
+ *          those padding bits is an error.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class BitReader {
+    private final InputStream in; // the input stream, null when reading an array
+    private final byte[] buf; // bytes read but not yet in bits
+    private int pos, lim; // next unread byte in buf and end of valid bytes
+
+    private long bits; // the low count bits are the next bits of the stream
+    private int count; // number of bits held in bits
+    private int padding; // how many of the low bits are 0s past the end of the stream
+    private long taken; // bytes taken from the source, into bits or by read
+
+    /**
+     * Create a bit reader from an InputStream.
+     */
+    public BitReader(InputStream in) {
+        this.in = in;
+        this.buf = new byte[1 << 16];
+    }
+
+    /**
+     * Create a bit reader over len bytes of an array, without copying them.
+     */
+    public BitReader(byte[] b, int off, int len) {
+        this.in = null;
+        this.buf = b;
+        this.pos = off;
+        this.lim = off + len;
+    }
+
+    // top up bits so that at least 57 are available
+    private void fill() throws IOException {
+        while (count <= 56) {
+            if (pos == lim) {
+                if (in != null) {
+                    lim = in.read(buf, 0, buf.length);
+                    pos = 0;
+                }
+                if (in == null || lim <= 0) {
+                    lim = pos;
+                    bits <<= 8;
+                    count += 8;
+                    padding += 8;
+                    continue;
+                }
+            }
+            bits = (bits << 8) | (buf[pos++] & 0xFF);
+            count += 8;
+            taken++;
+        }
+    }
+
+    /**
+     * Return the next n bits without consuming them.
+     *
+     * @param n number of bits, between 1 and 32
+     */
+    public int peek(int n) throws IOException {
+        if (count < n)
+            fill();
+        return (int) ((bits >>> (count - n)) & ((1L << n) - 1));
+    }
+
+    /**
+     * Consume n bits that have already been peeked at.
+     */
+    public void skip(int n) throws IOException {
+        count -= n;
+        if (count < padding)
+            throw new IOException("Reading past end of input stream");
+    }
+
+    /**
+     * Read the next n bits as an int.
+     *
+     * @param n number of bits, between 1 and 32
+     */
+    public int readBits(int n) throws IOException {
+        int x = peek(n);
+        skip(n);
+        return x;
+    }
+
+    /**
+     * Read the next bit as a boolean.
+     */
+    public boolean readBoolean() throws IOException {
+        return readBits(1) == 1;
+    }
+
+    /**
+     * Read the next 8 bits as a char.
+     */
+    public char readChar() throws IOException {
+        return (char) readBits(8);
+    }
+
+    /**
+     * Skip the rest of the current byte.
+     */
+    public void align() throws IOException {
+        skip(count & 7);
+    }
+
+    /**
+     * Number of whole bytes read so far, exact only at a byte boundary.
+     */
+    public long position() {
+        return taken - (count - padding) / 8;
+    }
+
+    /**
+     * Read len whole bytes into b, the reader must be at a byte boundary.
+     */
+    public void read(byte[] b, int off, int len) throws IOException {
+        if ((count & 7) != 0)
+            throw new IllegalStateException("Bulk read at bit offset " + (count & 7));
+        // bytes already taken into bits come first
+        while (len > 0 && count > 0) {
+            b[off++] = (byte) readBits(8);
+            len--;
+        }
+        while (len > 0) {
+            if (pos == lim) {
+                lim = in == null ? -1 : in.read(buf, 0, buf.length);
+                pos = 0;
+                if (lim <= 0) {
+                    lim = 0;
+                    throw new IOException("Reading past end of input stream");
+                }
+            }
+            int n = Math.min(len, lim - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            taken += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Close the underlying input stream.
+     */
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+}
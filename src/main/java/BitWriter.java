@@ -0,0 +1,135 @@
+/*************************************************************************
+ *  Compilation:  javac BitWriter.java
+ *
+ *  Description:  Writes bits to an output stream, most significant bit
+ *                first, in the same order as BinaryOut and BitReader.
+ *
+ *  Design: BinaryOut shifts one bit at a time into an 8-bit buffer. BitWriter
+ *          ORs a whole code into a 64-bit accumulator instead and, once 32 or
+ *          more bits are pending, moves the top 32 of them into a byte array
+ *          as one word. The array goes to the stream only when it is full, so
+ *          writing a code costs a shift, an OR and a compare, and allocates
+ *          nothing.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+import java.io.OutputStream;
+
+public final class BitWriter {
+    private final OutputStream out; // the output stream
+    private final byte[] buf = new byte[1 << 16]; // whole bytes waiting for the stream
+    private int pos; // number of bytes in buf
+    private long written; // bytes already handed to the stream
+
+    private long bits; // the low count bits are pending output
+    private int count; // number of pending bits, always less than 32 between calls
+
+    /**
+     * Create a bit writer on an OutputStream.
+     */
+    public BitWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Write the low n bits of value.
+     *
+     * @param value the bits to write, right aligned
+     * @param n     number of bits, between 0 and 32
+     */
+    public void write(int value, int n) throws IOException {
+        bits = (bits << n) | (value & ((1L << n) - 1));
+        count += n;
+        if (count >= 32) {
+            count -= 32;
+            if (pos + 4 > buf.length)
+                drain();
+            int word = (int) (bits >>> count);
+            buf[pos] = (byte) (word >>> 24);
+            buf[pos + 1] = (byte) (word >>> 16);
+            buf[pos + 2] = (byte) (word >>> 8);
+            buf[pos + 3] = (byte) word;
+            pos += 4;
+        }
+    }
+
+    /**
+     * Write one bit.
+     */
+    public void write(boolean bit) throws IOException {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Pad the pending bits with 0s up to a byte boundary.
+     */
+    public void align() throws IOException {
+        if ((count & 7) != 0)
+            write(0, 8 - (count & 7));
+    }
+
+    /**
+     * Write whole bytes, the writer must be at a byte boundary.
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((count & 7) != 0)
+            throw new IllegalStateException("Bulk write at bit offset " + (count & 7));
+        while (count > 0) {
+            if (pos == buf.length)
+                drain();
+            count -= 8;
+            buf[pos++] = (byte) (bits >>> count);
+        }
+        if (len > buf.length - pos) {
+            drain();
+            if (len > buf.length) {
+                out.write(b, off, len);
+                written += len;
+                return;
+            }
+        }
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+    /**
+     * Number of whole bytes written so far, exact only at a byte boundary.
+     */
+    public long position() {
+        return written + pos + count / 8;
+    }
+
+    // move whole bytes to the stream
+    private void drain() throws IOException {
+        out.write(buf, 0, pos);
+        written += pos;
+        pos = 0;
+    }
+
+    /**
+     * Pad to a byte boundary and push everything to the stream.
+     */
+    public void flush() throws IOException {
+        align();
+        while (count > 0) {
+            if (pos == buf.length)
+                drain();
+            count -= 8;
+            buf[pos++] = (byte) (bits >>> count);
+        }
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Flush and close the underlying stream.
+     */
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,132 @@
+/*************************************************************************
+ *  Compilation:  javac CanonicalCode.java
+ *
+ *  Description:  Canonical Huffman codes shared by SchubsH and Deschubs.
+ *
+ *  Design: A canonical code is fully determined by the code length of every
+ *          symbol. Codes are handed out in order of (length, symbol), each one
+ *          the previous code plus one, shifted left whenever the length grows.
+ *          Because both sides can rebuild the codes from the lengths alone, the
+ *          header only has to carry the 256 lengths instead of the whole trie.
+ *
+ *  Header: 8 bits   number of symbols in use, minus one
+ *          3 bits   width w of each length field, minus one
+ *          then for each symbol in use, in increasing order:
+ *            gamma   distance from the previous symbol in use (the first from -1)
+ *            w bits  the code length of the symbol
+ *          Dense alphabets cost w + 1 bits per symbol, sparse ones a few more
+ *          for the gaps, either way less than the 10 bits per leaf of a trie.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+
+public final class CanonicalCode {
+
+    // alphabet size of extended ASCII
+    static final int R = 256;
+
+    // longest code that fits a non-negative int
+    static final int MAX_LENGTH = 31;
+
+    private CanonicalCode() {
+    }
+
+    // longest code length in use
+    static int maxLength(int[] len) {
+        int max = 0;
+        for (int i = 0; i < R; i++)
+            max = Math.max(max, len[i]);
+        return max;
+    }
+
+    // assign canonical codes, shorter codes first and ties broken by symbol
+    static int[] codes(int[] len) {
+        int max = maxLength(len);
+        int[] count = new int[max + 1];
+        for (int i = 0; i < R; i++)
+            if (len[i] > 0)
+                count[len[i]]++;
+
+        int[] next = new int[max + 2];
+        int code = 0;
+        for (int bits = 1; bits <= max; bits++) {
+            code = (code + count[bits - 1]) << 1;
+            next[bits] = code;
+        }
+        int[] codes = new int[R];
+        for (int i = 0; i < R; i++)
+            if (len[i] > 0)
+                codes[i] = next[len[i]]++;
+        return codes;
+    }
+
+    // write the code lengths of the symbols in use
+    static void writeLengths(int[] len, BitWriter out) throws IOException {
+        int used = 0;
+        for (int i = 0; i < R; i++)
+            if (len[i] > 0)
+                used++;
+        int width = widthOf(maxLength(len));
+        out.write(used - 1, 8);
+        out.write(width - 1, 3);
+
+        int previous = -1;
+        for (int i = 0; i < R; i++) {
+            if (len[i] == 0)
+                continue;
+            writeGamma(i - previous, out);
+            out.write(len[i], width);
+            previous = i;
+        }
+    }
+
+    // read the code lengths written by writeLengths, checking they make a prefix code
+    static int[] readLengths(BitReader in) throws IOException {
+        int used = in.readBits(8) + 1;
+        int width = in.readBits(3) + 1;
+        int[] len = new int[R];
+        int symbol = -1;
+        long kraft = 0; // sum of 2^(MAX_LENGTH - length), at most 2^MAX_LENGTH for a prefix code
+        for (int i = 0; i < used; i++) {
+            symbol += readGamma(in);
+            if (symbol >= R)
+                throw new IOException("Invalid code length header");
+            len[symbol] = in.readBits(width);
+            if (len[symbol] < 1 || len[symbol] > MAX_LENGTH)
+                throw new IOException("Invalid code length header");
+            kraft += 1L << (MAX_LENGTH - len[symbol]);
+        }
+        // more codes than the lengths leave room for would overrun the decode tables
+        if (kraft > 1L << MAX_LENGTH)
+            throw new IOException("Invalid code length header");
+        return len;
+    }
+
+    // Elias gamma code of x >= 1: as many 0s as x has bits after the leading 1, then x
+    private static void writeGamma(int x, BitWriter out) throws IOException {
+        int width = widthOf(x);
+        out.write(0, width - 1);
+        out.write(x, width);
+    }
+
+    private static int readGamma(BitReader in) throws IOException {
+        int width = 1;
+        while (!in.readBoolean())
+            width++;
+        if (width > 9)
+            throw new IOException("Invalid code length header");
+        return (1 << (width - 1)) | (width > 1 ? in.readBits(width - 1) : 0);
+    }
+
+    // bits needed to write the value x
+    private static int widthOf(int x) {
+        int width = 1;
+        while ((x >>> width) != 0)
+            width++;
+        return width;
+    }
+}
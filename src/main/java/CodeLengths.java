@@ -0,0 +1,178 @@
+/*************************************************************************
+ *  Compilation:  javac CodeLengths.java
+ *
+ *  Description:  Huffman code lengths computed straight from symbol
+ *                frequencies, for use with CanonicalCode.
+ *
+ *  Design: huffman() builds the tree in place on one primitive array, after
+ *          Moffat and Katajainen: with the weights sorted, merged nodes come out
+ *          in increasing weight as well, so the two smallest are always at the
+ *          front of either the unmerged leaves or the merged nodes and no
+ *          priority queue is needed. The same array then holds parent indexes,
+ *          then node depths and finally the leaf depths, with no Node objects
+ *          for the garbage collector.
+ *
+ *          An unrestricted Huffman tree can get as deep as the alphabet is
+ *          large on skewed inputs (Fibonacci like frequencies), which breaks
+ *          int code tables and makes decode tables huge. limited() uses the
+ *          package-merge algorithm to find the optimal code lengths subject
+ *          to a maximum length. Each level of the algorithm merges the sorted
+ *          symbols with pairs ("packages") of the level below; the code length
+ *          of a symbol is the number of levels it is selected at.
+ *
+ *  Trade Off: Package-merge costs O(n * maxLength) time and memory instead of
+ *          the O(n log n) of the plain priority queue build, which is nothing
+ *          next to encoding the data for a 256 symbol alphabet.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+public final class CodeLengths {
+
+    private CodeLengths() {
+    }
+
+    /**
+     * Huffman code lengths, unrestricted in length. A lone symbol gets 1 bit.
+     *
+     * @param freq frequency of every symbol, 0 if unused
+     */
+    public static int[] huffman(long[] freq) {
+        int[] len = new int[freq.length];
+        int[] sym = sortedSymbols(freq);
+        int n = sym.length;
+        if (n == 0)
+            return len;
+        if (n == 1) {
+            len[sym[0]] = 1;
+            return len;
+        }
+        long[] a = new long[n];
+        for (int i = 0; i < n; i++)
+            a[i] = freq[sym[i]];
+
+        // merge: a[next] becomes the weight of internal node next, and a merged
+        // node's slot is overwritten with the index of its parent
+        a[0] += a[1];
+        int root = 0, leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else
+                a[next] = a[leaf++];
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else
+                a[next] += a[leaf++];
+        }
+
+        // depth of every internal node from the depth of its parent, the root is n - 2
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--)
+            a[next] = a[(int) a[next]] + 1;
+
+        // the free slots at each depth go to leaves, most frequent leaves first
+        int available = 1, used = 0, depth = 0, next = n - 1;
+        root = n - 2;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+        for (int i = 0; i < n; i++)
+            len[sym[i]] = (int) a[i];
+        return len;
+    }
+
+    /**
+     * Optimal code lengths no longer than maxLength bits.
+     *
+     * @param freq      frequency of every symbol, 0 if unused
+     * @param maxLength longest code allowed
+     * @throws IllegalArgumentException if the symbols in use do not fit in
+     *                                  codes of maxLength bits
+     */
+    public static int[] limited(long[] freq, int maxLength) {
+        int[] len = new int[freq.length];
+        int[] sym = sortedSymbols(freq);
+        int n = sym.length;
+        if (n == 0)
+            return len;
+        if (n == 1) {
+            len[sym[0]] = 1;
+            return len;
+        }
+        if (maxLength < 31 && (1 << maxLength) < n)
+            throw new IllegalArgumentException(n + " symbols do not fit in " + maxLength + "-bit codes");
+
+        // weight and kind (symbol or package) of every item, deepest level first
+        long[][] weight = new long[maxLength][];
+        boolean[][] isSymbol = new boolean[maxLength][];
+        for (int d = maxLength - 1; d >= 0; d--) {
+            int packages = d == maxLength - 1 ? 0 : weight[d + 1].length / 2;
+            weight[d] = new long[n + packages];
+            isSymbol[d] = new boolean[n + packages];
+
+            // merge the sorted symbols with the pairs of the level below
+            int i = 0, p = 0, k = 0;
+            while (i < n || p < packages) {
+                long pw = p < packages ? weight[d + 1][2 * p] + weight[d + 1][2 * p + 1] : Long.MAX_VALUE;
+                if (i < n && freq[sym[i]] <= pw) {
+                    weight[d][k] = freq[sym[i++]];
+                    isSymbol[d][k++] = true;
+                } else {
+                    weight[d][k++] = pw;
+                    p++;
+                }
+            }
+        }
+
+        // select the cheapest 2n - 2 items at the top and follow the packages down
+        int select = 2 * n - 2;
+        for (int d = 0; d < maxLength && select > 0; d++) {
+            int symbols = 0;
+            for (int k = 0; k < select; k++)
+                if (isSymbol[d][k])
+                    len[sym[symbols++]]++;
+            select = 2 * (select - symbols);
+        }
+        return len;
+    }
+
+    // symbols in use, by increasing frequency and then by symbol
+    private static int[] sortedSymbols(long[] freq) {
+        int n = 0;
+        for (int i = 0; i < freq.length; i++)
+            if (freq[i] > 0)
+                n++;
+        int[] sym = new int[n];
+        n = 0;
+        for (int i = 0; i < freq.length; i++)
+            if (freq[i] > 0)
+                sym[n++] = i;
+
+        // insertion sort is plenty for a 256 symbol alphabet
+        for (int i = 1; i < n; i++) {
+            int s = sym[i];
+            int j = i - 1;
+            while (j >= 0 && freq[sym[j]] > freq[s]) {
+                sym[j + 1] = sym[j];
+                j--;
+            }
+            sym[j + 1] = s;
+        }
+        return sym;
+    }
+}
@@ -1,10 +1,15 @@
 
 /*************************************************************************
  *  Compilation:  javac Deschubs.java
- *  Execution:    java Deschubs <filename>.<extension>
+ *  Execution:    java Deschubs <filename>.<extension> OR java Deschubs - < input.hh > input
+ *                java Deschubs <archive>.zh <entry> OR java Deschubs -l <archive>.zh
  *  Run Example:  java Deschubs ../src/DeschubsTests/testFile.txt.hh
+ *                java Deschubs -l ../src/DeschubsTests/DeschubsTests.zh   (list the entries)
  * 
  *  Description:  This program decompresses .hh|.ll|.zh files that have been compressed into their original files
+ *                Archives are read through their central directory (see ArchiveDirectory), so one entry can be
+ *                extracted or the entries listed without reading the rest of the archive. The archive is memory
+ *                mapped (see ArchiveReader) and every entry is decoded straight from its slice of the mapping.
  * 
  *  Test Instructions: mvn test
  *          - Make sure to delete or move the files created during testing before testing again
@@ -24,7 +29,14 @@
  *
  *************************************************************************/
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Deschubs {
     private static final int R = 256; // number of input chars
@@ -32,14 +44,12 @@ public class Deschubs {
     private static final int W = 500; // codeword width
 
     // Huffman trie node
-    private static class Node implements Comparable<Node> {
+    private static class Node {
         private final char ch;
-        private final int freq;
         private final Node left, right;
 
-        Node(char ch, int freq, Node left, Node right) {
+        Node(char ch, Node left, Node right) {
             this.ch = ch;
-            this.freq = freq;
             this.left = left;
             this.right = right;
         }
@@ -50,84 +60,17 @@ public class Deschubs {
             return (left == null && right == null);
         }
 
-        // compare, based on frequency
-        public int compareTo(Node that) {
-            return this.freq - that.freq;
-        }
     }
 
     public static void decompress(String inputFile, String outputFile) {
         try {
             // Check if the file is Huffman compressed (.hh)
             if (inputFile.endsWith(".hh")) {
-                // create input stream for reading compressed file
-                FileInputStream fis = new FileInputStream(inputFile);
-                ObjectInputStream ois = new ObjectInputStream(fis);
-
-                // read in Huffman trie from input stream
-                Node root = readTrie(ois);
-
-                // number of bytes to write
-                int length = ois.readInt();
-
-                // create output stream for writing uncompressed file
-                FileOutputStream fos = new FileOutputStream(outputFile); // remove ".hh" or ".ll" extension
-                BufferedOutputStream bos = new BufferedOutputStream(fos);
-
-                // decode using the Huffman trie and write to uncompressed file
-                for (int i = 0; i < length; i++) {
-                    Node x = root;
-                    while (!x.isLeaf()) {
-                        boolean bit = ois.readBoolean();
-                        if (bit)
-                            x = x.right;
-                        else
-                            x = x.left;
-                    }
-                    bos.write(x.ch);
-                }
-                bos.flush();
-                bos.close();
-                ois.close();
+                expandHuffman(inputFile, outputFile);
             }
             // Check if the file is LZW compressed (.ll)
             else if (inputFile.endsWith(".ll")) {
-                try (DataInputStream inputStream = new DataInputStream(new FileInputStream(inputFile));
-                        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
-
-                    String compressedData = inputStream.readUTF();
-                    String[] codes = compressedData.split(" ");
-
-                    HashMap<Integer, String> st = new HashMap<>();
-                    for (int i = 0; i < R; i++) {
-                        st.put(i, "" + (char) i);
-                    }
-                    int code = R + 1; // R is codeword for EOF
-
-                    StringBuilder outputData = new StringBuilder();
-                    String current = "" + (char) Integer.parseInt(codes[0]);
-                    outputData.append(current);
-
-                    for (int i = 1; i < codes.length; i++) {
-                        int nextCode = Integer.parseInt(codes[i]);
-                        String entry;
-                        if (st.containsKey(nextCode)) {
-                            entry = st.get(nextCode);
-                        } else if (nextCode == code) {
-                            entry = current + current.charAt(0);
-                        } else {
-                            throw new IllegalStateException("Invalid compressed file");
-                        }
-
-                        outputData.append(entry);
-                        if (code < L) {
-                            st.put(code++, current + entry.charAt(0));
-                        }
-                        current = entry;
-                    }
-
-                    writer.write(outputData.toString());
-                }
+                expandLZW(inputFile, outputFile);
             }
             // Unsupported file format
             else {
@@ -138,6 +81,164 @@ public class Deschubs {
         }
     }
 
+    // decode a .ll file into outputFile, binary files start with a header, older ones hold decimal text
+    private static void expandLZW(String inputFile, String outputFile) throws IOException {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(inputFile))) {
+            bis.mark(4);
+            int magic = (bis.read() << 8) | bis.read();
+            int version = bis.read();
+            int maxWidth = bis.read();
+            bis.reset();
+
+            // chunk files with an index are decoded in parallel, straight from the file
+            boolean binary = magic == SchubsL.MAGIC && version >= SchubsL.VERSION_BINARY
+                    && version <= SchubsL.VERSION_ENTROPY;
+            boolean chunks = version == SchubsL.VERSION_CHUNKS || version == SchubsL.VERSION_ENTROPY;
+            boolean entropy = version == SchubsL.VERSION_ENTROPY;
+            if (binary && chunks && maxWidth >= SchubsL.MIN_WIDTH && maxWidth <= SchubsL.MAX_WIDTH
+                    && expandBlocksParallel(inputFile, outputFile, 4, SchubsL.INDEX_MAGIC,
+                            (payload, data, n) -> expandChunk(payload, data, n, maxWidth, entropy)))
+                return;
+
+            try (OutputStream os = new FileOutputStream(outputFile)) {
+                if (binary)
+                    expandLZWBinary(bis, os);
+                else
+                    expandLZWText(bis, os);
+            }
+        }
+    }
+
+    // binary codes of growing width, see SchubsL; version 3 adds the CLEAR codeword, version 4
+    // holds version 3 chunks, read here one after the other, and version 5 Huffman codes them
+    private static void expandLZWBinary(InputStream is, OutputStream os) throws IOException {
+        BitReader in = new BitReader(is);
+        in.readBits(16); // magic
+        int version = in.readBits(8);
+        if (version < SchubsL.VERSION_BINARY || version > SchubsL.VERSION_ENTROPY)
+            throw new IOException("Unsupported .ll version " + version);
+        int maxWidth = in.readBits(8);
+        if (maxWidth < SchubsL.MIN_WIDTH || maxWidth > SchubsL.MAX_WIDTH)
+            throw new IOException("Invalid LZW code width " + maxWidth);
+
+        if (version == SchubsL.VERSION_BINARY) {
+            expandLZWCodes(in, maxWidth, R + 1, null, os);
+        } else if (version == SchubsL.VERSION_CLEAR) {
+            expandLZWCodes(in, maxWidth, SchubsL.CLEAR + 1, null, os);
+        } else {
+            long length = readLength(in);
+            long chunks = readLength(in);
+            long total = 0;
+            for (long c = 0; c < chunks; c++) {
+                long size = readLength(in);
+                long payloadSize = readLength(in);
+                if (size > Integer.MAX_VALUE || payloadSize > Integer.MAX_VALUE)
+                    throw new IOException("Chunk too large");
+                byte[] payload = new byte[(int) payloadSize];
+                in.read(payload, 0, payload.length);
+                byte[] data = new byte[(int) size];
+                expandChunk(payload, data, data.length, maxWidth, version == SchubsL.VERSION_ENTROPY);
+                os.write(data);
+                total += size;
+            }
+            if (total != length)
+                throw new IOException("Chunks hold " + total + " bytes instead of " + length);
+        }
+        os.flush();
+    }
+
+    // one version 4 chunk: version 3 codes with a fresh dictionary, exactly n bytes long; in version 5
+    // a flag bit tells if the high bits of the codes go through the Huffman code that follows it
+    private static void expandChunk(byte[] payload, byte[] data, int n, int maxWidth, boolean entropy)
+            throws IOException {
+        BitReader in = new BitReader(payload, 0, payload.length);
+        HuffmanDecoder high = null;
+        if (entropy && in.readBoolean()) {
+            int[] len = CanonicalCode.readLengths(in);
+            high = new HuffmanDecoder(CanonicalCode.codes(len), len);
+        }
+        // the index gives the length, so the codes decode straight into data
+        ChunkOutputStream out = new ChunkOutputStream(data, n);
+        expandLZWCodes(in, maxWidth, SchubsL.CLEAR + 1, high, out);
+        if (out.size != n)
+            throw new IOException("Chunk holds " + out.size + " bytes instead of " + n);
+    }
+
+    // writes into the first n bytes of an array and refuses anything past them
+    private static final class ChunkOutputStream extends OutputStream {
+        private final byte[] data;
+        private final int n;
+        private int size;
+
+        ChunkOutputStream(byte[] data, int n) {
+            this.data = data;
+            this.n = n;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > n - size)
+                throw new IOException("Chunk holds more than " + n + " bytes");
+            System.arraycopy(b, off, data, size, len);
+            size += len;
+        }
+    }
+
+    // codes up to the EOF codeword, start is the first code of the dictionary and is past CLEAR
+    // if the codes can clear it; with high the top bits of every code are Huffman coded
+    private static void expandLZWCodes(BitReader in, int maxWidth, int start, HuffmanDecoder high,
+            OutputStream os) throws IOException {
+        boolean clears = start > SchubsL.CLEAR;
+        LZWDecoder decoder = new LZWDecoder(maxWidth, start, os);
+        long read = 0; // codewords read since the last clear, sets the width of the next one
+        while (true) {
+            int width = SchubsL.width(read++, start, maxWidth);
+            int codeword;
+            if (high == null) {
+                codeword = in.readBits(width);
+            } else {
+                int low = width - SchubsL.HIGH_BITS;
+                codeword = (high.decode(in) << low) | in.readBits(low);
+            }
+            if (codeword == R)
+                break;
+            if (clears && codeword == SchubsL.CLEAR) {
+                decoder.reset();
+                read = 0;
+            } else {
+                decoder.decode(codeword);
+            }
+        }
+        decoder.flush();
+    }
+
+    // codes as decimal text separated by spaces, written with writeUTF by earlier versions of SchubsL
+    private static void expandLZWText(InputStream is, OutputStream os) throws IOException {
+        String compressedData = new DataInputStream(is).readUTF();
+        // those versions used 12-bit codes without an EOF codeword
+        LZWDecoder decoder = new LZWDecoder(12, R + 1, os);
+        int codeword = -1;
+        for (int i = 0; i < compressedData.length(); i++) {
+            char c = compressedData.charAt(i);
+            if (c == ' ') {
+                decoder.decode(codeword);
+                codeword = -1;
+            } else if (c >= '0' && c <= '9' && codeword < L) {
+                codeword = Math.max(codeword, 0) * 10 + (c - '0');
+            } else {
+                throw new IOException("Invalid LZW code in text format");
+            }
+        }
+        if (codeword >= 0)
+            decoder.decode(codeword);
+        decoder.flush();
+    }
+
     public static void expand(String filename) throws IOException {
         // check if the file that is soon to be expanded into already exists
         File file = new File(filename.substring(0, filename.length() - 3));
@@ -149,21 +250,325 @@ public class Deschubs {
         // }
         try {
             System.out.println("New file being created");
-            // create input stream for reading compressed file
-            FileInputStream fis = new FileInputStream(filename);
-            ObjectInputStream ois = new ObjectInputStream(fis);
-
-            // read in Huffman trie from input stream
-            Node root = readTrie(ois);
+            // remove ".hh" or ".ll" extension
+            if (filename.endsWith(".ll"))
+                expandLZW(filename, filename.substring(0, filename.length() - 3));
+            else
+                expandHuffman(filename, filename.substring(0, filename.length() - 3));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // number of bytes to write
-            int length = ois.readInt();
+    // decode a .hh file into outputFile, detecting the format from its header
+    private static void expandHuffman(String inputFile, String outputFile) throws IOException {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(inputFile))) {
+            // peek at the magic, legacy files start with the ObjectOutputStream header
+            bis.mark(3);
+            int magic = (bis.read() << 8) | bis.read();
+            int version = bis.read();
+            bis.reset();
 
+            if (magic != SchubsH.MAGIC) {
+                expandLegacy(bis, outputFile);
+                return;
+            }
+            // block files with an index are decoded in parallel, straight from the file
+            boolean blocks = version == SchubsH.VERSION_BLOCKS || version == SchubsH.VERSION_STREAMS;
+            BlockDecoder decoder = version == SchubsH.VERSION_STREAMS ? Deschubs::expandStreams
+                    : Deschubs::expandCanonical;
+            if (blocks && expandBlocksParallel(inputFile, outputFile, 3, SchubsH.INDEX_MAGIC, decoder))
+                return;
             // create output stream for writing uncompressed file
-            FileOutputStream fos = new FileOutputStream(filename.substring(0, filename.length() - 3)); // remove ".hh"
-                                                                                                       // extension
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
+            try (OutputStream bos = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                expandPacked(bis, bos);
+            }
+        }
+    }
+
+    // decode a packed .hh or binary .ll stream read once from start to end, such as standard input
+    private static void expandStream(InputStream is, OutputStream os) throws IOException {
+        try (BufferedInputStream bis = new BufferedInputStream(is)) {
+            bis.mark(2);
+            int magic = (bis.read() << 8) | bis.read();
+            bis.reset();
+            if (magic == SchubsH.MAGIC)
+                expandPacked(bis, os);
+            else if (magic == SchubsL.MAGIC)
+                expandLZWBinary(bis, os);
+            else
+                throw new IOException("Not a packed .hh or binary .ll stream");
+        }
+        os.flush();
+    }
+
+    // version 2 and later: header, length, code table and codes are packed bits
+    private static void expandPacked(InputStream is, OutputStream os) throws IOException {
+        BitReader in = new BitReader(is);
+        in.readBits(16); // magic
+        int version = in.readBits(8);
+
+        if (version == SchubsH.VERSION_TRIE)
+            expandTrie(in, os);
+        else if (version == SchubsH.VERSION_CANONICAL)
+            expandCanonical(in, os);
+        else if (version == SchubsH.VERSION_BLOCKS)
+            expandBlocks(in, os, false);
+        else if (version == SchubsH.VERSION_STREAMS)
+            expandBlocks(in, os, true);
+        else if (version == SchubsH.VERSION_ADAPTIVE)
+            AdaptiveHuffman.expand(in, os);
+        else
+            throw new IOException("Unsupported .hh version " + version);
+    }
+
+    // version 2: int length, preorder trie, codes
+    private static void expandTrie(BitReader in, OutputStream os) throws IOException {
+        // number of bytes to write
+        int length = in.readBits(32);
+        if (length == 0)
+            return;
+
+        // read in Huffman trie from input stream
+        Node root = readTrie(in);
+
+        // tries too deep for the decode tables are walked bit by bit
+        int[] code = new int[R];
+        int[] len = new int[R];
+        if (buildCode(root, 0, 0, code, len)) {
+            decode(new HuffmanDecoder(code, len), in, length, os);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            Node x = root;
+            while (!x.isLeaf()) {
+                if (in.readBoolean())
+                    x = x.right;
+                else
+                    x = x.left;
+            }
+            os.write(x.ch);
+        }
+    }
+
+    // version 3: varint length, code lengths, canonical codes
+    private static void expandCanonical(BitReader in, OutputStream os) throws IOException {
+        long length = readLength(in);
+        if (length == 0)
+            return;
+        int[] len = CanonicalCode.readLengths(in);
+        decode(new HuffmanDecoder(CanonicalCode.codes(len), len), in, length, os);
+    }
+
+    // version 4 and 6: varint length, varint block count, blocks of code lengths and codes
+    private static void expandBlocks(BitReader in, OutputStream os, boolean streams) throws IOException {
+        long length = readLength(in);
+        long blocks = readLength(in);
+        long total = 0;
+        for (long b = 0; b < blocks; b++) {
+            long size = readLength(in);
+            long payloadSize = readLength(in);
+            if (streams) {
+                // the streams of a block are decoded side by side, so the payload is read whole
+                if (size > Integer.MAX_VALUE || payloadSize > Integer.MAX_VALUE)
+                    throw new IOException("Block too large");
+                byte[] payload = new byte[(int) payloadSize];
+                in.read(payload, 0, payload.length);
+                byte[] data = new byte[(int) size];
+                expandStreams(payload, data, data.length);
+                os.write(data);
+                total += size;
+                continue;
+            }
+            int[] len = CanonicalCode.readLengths(in);
+            decode(new HuffmanDecoder(CanonicalCode.codes(len), len), in, size, os);
+            in.align();
+            total += size;
+        }
+        if (total != length)
+            throw new IOException("Blocks hold " + total + " bytes instead of " + length);
+    }
 
+    // decodes one block payload into the first n bytes of data
+    private interface BlockDecoder {
+        void decode(byte[] payload, byte[] data, int n) throws IOException;
+    }
+
+    // block files with an index (.hh versions 4 and 6, .ll version 4): every block is decoded on its
+    // own into its place in the output, false if the file has no index
+    private static boolean expandBlocksParallel(String inputFile, String outputFile, int headerSize,
+            int indexMagic, BlockDecoder decoder) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < headerSize + SchubsH.FOOTER_SIZE)
+                return false;
+            ByteBuffer footer = ArchiveDirectory.read(in, size - SchubsH.FOOTER_SIZE, SchubsH.FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            if (footer.getInt() != indexMagic)
+                return false;
+            long indexSize = size - SchubsH.FOOTER_SIZE - indexOffset;
+            if (indexOffset < headerSize || indexSize < 0 || indexSize % SchubsH.INDEX_ENTRY_SIZE != 0)
+                throw new IOException("Invalid block index in " + inputFile);
+            ByteBuffer index = ArchiveDirectory.read(in, indexOffset, (int) indexSize);
+
+            // the varint length and block count follow the fixed header
+            int headerBytes = (int) Math.min(20, indexOffset - headerSize);
+            byte[] lengths = ArchiveDirectory.read(in, headerSize, headerBytes).array();
+            BitReader header = new BitReader(lengths, 0, lengths.length);
+            long total = readLength(header);
+            long count = readLength(header);
+            int blocks = (int) (indexSize / SchubsH.INDEX_ENTRY_SIZE);
+            if (count != blocks)
+                throw new IOException("Block index of " + inputFile + " has " + blocks + " blocks, not " + count);
+
+            // check the whole index first, so a damaged one fails before any block is decoded
+            long[] payloadOffsets = new long[blocks];
+            int[] payloadSizes = new int[blocks];
+            long[] offsets = new long[blocks];
+            int[] blockLengths = new int[blocks];
+            long payloadEnd = headerSize; // end of the previous payload
+            long end = 0; // end of the previous block in the output
+            for (int i = 0; i < blocks; i++) {
+                payloadOffsets[i] = index.getLong();
+                payloadSizes[i] = index.getInt();
+                offsets[i] = index.getLong();
+                blockLengths[i] = index.getInt();
+                if (payloadOffsets[i] < payloadEnd || payloadSizes[i] < 0
+                        || payloadOffsets[i] + payloadSizes[i] > indexOffset || offsets[i] != end || blockLengths[i] < 0)
+                    throw new IOException("Invalid block " + i + " in the index of " + inputFile);
+                payloadEnd = payloadOffsets[i] + payloadSizes[i];
+                end += blockLengths[i];
+            }
+            if (end != total)
+                throw new IOException("Blocks of " + inputFile + " hold " + end + " bytes, not " + total);
+
+            try (FileChannel out = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // a couple of blocks per worker in flight keeps memory bounded
+                ForkJoinPool pool = ForkJoinPool.commonPool();
+                int window = 2 * pool.getParallelism();
+                ArrayDeque<ForkJoinTask<Void>> pending = new ArrayDeque<>();
+                for (int i = 0; i < blocks; i++) {
+                    long payloadOffset = payloadOffsets[i];
+                    int payloadSize = payloadSizes[i];
+                    long offset = offsets[i];
+                    int length = blockLengths[i];
+                    pending.add(pool.submit(() -> {
+                        expandBlock(in, payloadOffset, payloadSize, out, offset, length, decoder);
+                        return null;
+                    }));
+                    if (pending.size() >= window)
+                        pending.poll().join();
+                }
+                while (!pending.isEmpty())
+                    pending.poll().join();
+            }
+        }
+        return true;
+    }
+
+    // decode one block payload and write it at its offset, positional channel I/O is thread safe
+    private static void expandBlock(FileChannel in, long payloadOffset, int payloadSize, FileChannel out,
+            long offset, int length, BlockDecoder decoder) throws IOException {
+        byte[] payload = ArchiveDirectory.read(in, payloadOffset, payloadSize).array();
+        byte[] data = new byte[length];
+        decoder.decode(payload, data, length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            out.write(buffer, offset + buffer.position());
+    }
+
+    // version 4 payload: code lengths, then the codes
+    private static void expandCanonical(byte[] payload, byte[] data, int n) throws IOException {
+        BitReader bits = new BitReader(payload, 0, payload.length);
+        int[] len = CanonicalCode.readLengths(bits);
+        decode(new HuffmanDecoder(CanonicalCode.codes(len), len), bits, data, n);
+    }
+
+    // version 6 payload: jump table, then 4 streams holding consecutive segments of the block,
+    // the code lengths lead stream 0
+    private static void expandStreams(byte[] payload, byte[] data, int n) throws IOException {
+        if (payload.length < SchubsH.JUMP_TABLE_SIZE)
+            throw new IOException("Invalid stream jump table");
+        ByteBuffer jump = ByteBuffer.wrap(payload);
+        int[] start = new int[SchubsH.STREAMS + 1];
+        start[0] = SchubsH.JUMP_TABLE_SIZE;
+        for (int k = 1; k < SchubsH.STREAMS; k++) {
+            int size = jump.getInt();
+            if (size < 0 || size > payload.length - start[k - 1])
+                throw new IOException("Invalid stream jump table");
+            start[k] = start[k - 1] + size;
+        }
+        start[SchubsH.STREAMS] = payload.length;
+
+        // the code lengths are padded to a whole byte, the codes of stream 0 follow them
+        BitReader header = new BitReader(payload, start[0], start[1] - start[0]);
+        int[] len = CanonicalCode.readLengths(header);
+        header.align();
+        start[0] += (int) header.position();
+        if (start[0] > start[1])
+            throw new IOException("Invalid code length header");
+
+        // segments 0 to 2 hold (n + 3) / 4 bytes each, segment 3 the rest
+        int segment = (n + SchubsH.STREAMS - 1) / SchubsH.STREAMS;
+        int[] from = new int[SchubsH.STREAMS];
+        int[] count = new int[SchubsH.STREAMS];
+        for (int k = 0; k < SchubsH.STREAMS; k++) {
+            from[k] = Math.min(k * segment, n);
+            int end = k == SchubsH.STREAMS - 1 ? n : Math.min((k + 1) * segment, n);
+            count[k] = end - from[k];
+        }
+        new HuffmanDecoder(CanonicalCode.codes(len), len).decode4(payload, start, data, from, count);
+    }
+
+    // decode length symbols through the lookup tables, writing them out in chunks
+    private static void decode(HuffmanDecoder decoder, BitReader in, long length, OutputStream os)
+            throws IOException {
+        byte[] buf = new byte[1 << 16];
+        while (length > 0) {
+            int n = (int) Math.min(buf.length, length);
+            decode(decoder, in, buf, n);
+            os.write(buf, 0, n);
+            length -= n;
+        }
+    }
+
+    // decode n symbols into the start of dst
+    private static void decode(HuffmanDecoder decoder, BitReader in, byte[] dst, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            dst[i] = (byte) decoder.decode(in);
+    }
+
+    // codes of the trie leaves, false if a leaf is deeper than the decode tables allow
+    private static boolean buildCode(Node x, int code, int depth, int[] codes, int[] len) {
+        if (depth > CanonicalCode.MAX_LENGTH)
+            return false;
+        if (x.isLeaf()) {
+            // a lone leaf at the root is decoded without reading any bits
+            if (depth == 0)
+                return false;
+            codes[x.ch] = code;
+            len[x.ch] = depth;
+            return true;
+        }
+        return buildCode(x.left, code << 1, depth + 1, codes, len)
+                && buildCode(x.right, (code << 1) | 1, depth + 1, codes, len);
+    }
+
+    // legacy files: ObjectOutputStream with one writeBoolean per bit
+    private static void expandLegacy(InputStream is, String outputFile) throws IOException {
+        // create input stream for reading compressed file
+        ObjectInputStream ois = new ObjectInputStream(is);
+
+        // read in Huffman trie from input stream
+        Node root = readTrie(ois);
+
+        // number of bytes to write
+        int length = ois.readInt();
+
+        // create output stream for writing uncompressed file, the caller closes the input
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(outputFile))) {
             // decode using the Huffman trie and write to uncompressed file
             for (int i = 0; i < length; i++) {
                 Node x = root;
@@ -176,70 +581,120 @@ public class Deschubs {
                 }
                 bos.write(x.ch);
             }
-            bos.flush();
-            bos.close();
-            ois.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        }
+    }
+
+    // read a length written by SchubsH.writeLength
+    private static long readLength(BitReader in) throws IOException {
+        long length = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readBits(8);
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return length;
+        }
+        throw new IOException("Invalid length field");
+    }
+
+    private static Node readTrie(BitReader in) throws IOException {
+        boolean isLeaf = in.readBoolean();
+        if (isLeaf) {
+            return new Node(in.readChar(), null, null);
+        } else {
+            return new Node('\0', readTrie(in), readTrie(in));
         }
     }
 
     private static Node readTrie(ObjectInputStream ois) throws IOException {
         boolean isLeaf = ois.readBoolean();
         if (isLeaf) {
-            return new Node(ois.readChar(), -1, null, null);
+            return new Node(ois.readChar(), null, null);
         } else {
-            return new Node('\0', -1, readTrie(ois), readTrie(ois));
+            return new Node('\0', readTrie(ois), readTrie(ois));
+        }
+    }
+
+    // extract every entry of a .zh archive, or only the one named only, and expand it
+    private static void extractArchive(String archive, String only) throws IOException {
+        try (ArchiveReader reader = new ArchiveReader(archive)) {
+            ArchiveDirectory directory = reader.directory();
+            List<ArchiveDirectory.Entry> entries = directory.entries();
+            if (only != null) {
+                ArchiveDirectory.Entry entry = directory.find(only);
+                if (entry == null)
+                    throw new IllegalArgumentException("No entry " + only + " in " + archive);
+                entries = Collections.singletonList(entry);
+            }
+            for (ArchiveDirectory.Entry entry : entries) {
+                if (entry.codec != ArchiveDirectory.CODEC_HUFFMAN)
+                    throw new IOException("Unsupported codec " + entry.codec + " of " + entry.name);
+                if (!ArchiveDirectory.isSafeName(entry.name))
+                    throw new IOException("Unsafe entry name " + entry.name);
+                System.out.println("Extracting file: " + entry.name + " (" + entry.size + ").");
+                // the entry is decoded from the mapping, without writing its .hh file first
+                String outputFile = entry.name.endsWith(".hh")
+                        ? entry.name.substring(0, entry.name.length() - 3) : entry.name;
+                System.out.println(outputFile);
+                // entries of an archived directory go back to their subdirectories
+                File parent = new File(outputFile).getParentFile();
+                if (parent != null)
+                    parent.mkdirs();
+                expandEntry(reader.open(entry), outputFile);
+                System.out.println(entry.name + " extracted successfully.");
+            }
+        }
+    }
+
+    // decode an archived .hh entry into outputFile
+    private static void expandEntry(InputStream is, String outputFile) throws IOException {
+        is.mark(2);
+        int magic = (is.read() << 8) | is.read();
+        is.reset();
+        if (magic == SchubsH.MAGIC) {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                expandPacked(is, os);
+            }
+        } else {
+            expandLegacy(is, outputFile);
+        }
+    }
+
+    // print the name and sizes of every entry of a .zh archive
+    private static void listArchive(String archive) throws IOException {
+        try (ArchiveReader reader = new ArchiveReader(archive)) {
+            System.out.printf("%12s %12s  %s%n", "Compressed", "Original", "Name");
+            for (ArchiveDirectory.Entry entry : reader.directory().entries()) {
+                String original = entry.originalSize < 0 ? "?" : Long.toString(entry.originalSize);
+                System.out.printf("%12d %12s  %s%n", entry.size, original, entry.name);
+            }
         }
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.out.println("Usage: java Deschubs <filename>.<extension>");
+        boolean list = args.length == 2 && args[0].equals("-l");
+        boolean entry = args.length == 2 && args[0].endsWith(".zh");
+        if (args.length != 1 && !list && !entry) {
+            System.out.println("Usage: java Deschubs <filename>.<extension> OR java Deschubs - (.hh or .ll on standard input)");
+            System.out.println("       java Deschubs <archive>.zh <entry> OR java Deschubs -l <archive>.zh");
             throw new IllegalArgumentException("Incorrect number of arguments.");
         }
+        if (list) {
+            listArchive(args[1]);
+            return;
+        }
         String filename = args[0];
+        if (filename.equals("-")) {
+            // standard input to standard output, so nothing else may be printed
+            expandStream(System.in, System.out);
+            return;
+        }
         String extension = filename.substring(filename.lastIndexOf(".") + 1);
         if (extension.equals("hh")) {
             expand(filename);
         } else if (extension.equals("zh")) {
-            BinaryIn in = null;
-            BinaryOut out = null;
-
-            char sep = (char) 255; // all ones 11111111
-
-            try {
-                in = new BinaryIn(args[0]);
-
-                while (!in.isEmpty()) {
-                    int filenamesize = in.readInt();
-                    sep = in.readChar();
-                    String filenameUntar = "";
-                    for (int i = 0; i < filenamesize; i++)
-                        filenameUntar += in.readChar();
-
-                    sep = in.readChar();
-                    long filesize = in.readLong();
-                    sep = in.readChar();
-                    System.out.println("Extracting file: " + filenameUntar + " (" + filesize + ").");
-                    out = new BinaryOut(filenameUntar);
-                    for (int i = 0; i < filesize; i++)
-                        out.write(in.readChar());
-
-                    System.out.println(filenameUntar + " extracted successfully.");
-                    if (out != null) {
-                        out.close();
-                        System.out.println("File " + filenameUntar + " closed successfully.");
-                    }
-                    expand(filenameUntar);
-                }
-
-            } finally {
-                if (out != null)
-                    out.close();
-            }
+            extractArchive(filename, args.length == 2 ? args[1] : null);
         } else if (extension.equals("ll")) {
-            decompress(filename, filename + ".ll");
+            expand(filename);
         }
 
         else {
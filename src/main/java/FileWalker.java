@@ -0,0 +1,203 @@
+/*************************************************************************
+ *  Compilation:  javac FileWalker.java
+ *
+ *  Description:  Walks a directory tree for SchubsArc, returning its files
+ *                one at a time, all of them or those a glob pattern matches.
+ *
+ *  Design: Directories are listed on a pool, each listing reading the
+ *          attributes of its entries. When the walk enters a directory, all of
+ *          its subdirectories are submitted at once, so their listings and
+ *          stat calls run side by side while the files before them are taken.
+ *          Files come back in name order, depth first, so an archive of the
+ *          same tree is the same archive, and the walk never holds more than
+ *          the listings along its current path and their siblings, not the
+ *          whole tree.
+ *
+ *          A glob such as src/**.txt is walked from its directory part, src,
+ *          and matched with a PathMatcher. Without ** the walk stops at the
+ *          depth of the pattern.
+ *
+ *  Trade Off: Symbolic links to files are followed, links to directories are
+ *          not, so a link cannot lead the walk in a circle.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+public final class FileWalker {
+
+    private final PathMatcher matcher; // null takes every file
+    private final int maxDepth; // deepest level whose files are returned
+    private final Path skip; // absolute path never returned, such as the archive being written
+    private final ExecutorService pool;
+
+    private final ArrayDeque<Level> stack = new ArrayDeque<>();
+    private long size; // size of the last file returned
+
+    // a file or directory in a listing
+    private static final class Child {
+        final Path path;
+        final boolean directory;
+        final long size;
+        Future<List<Child>> listing; // of a directory the walk will enter
+
+        Child(Path path, boolean directory, long size) {
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+        }
+    }
+
+    // a directory being walked and how far the walk got
+    private static final class Level {
+        final List<Child> children;
+        final int depth;
+        int next;
+
+        Level(List<Child> children, int depth) {
+            this.children = children;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Walk the tree under root, returning the files matcher matches, or all of
+     * them if it is null, down to maxDepth levels below root.
+     *
+     * @throws IOException if root cannot be listed
+     */
+    public FileWalker(Path root, PathMatcher matcher, int maxDepth, Path skip, ExecutorService pool)
+            throws IOException {
+        this.matcher = matcher;
+        this.maxDepth = maxDepth;
+        this.skip = skip == null ? null : skip.toAbsolutePath().normalize();
+        this.pool = pool;
+        stack.push(enter(SchubsArc.join(pool.submit(() -> list(root)), "listing"), 1));
+    }
+
+    /**
+     * Walk the files a glob pattern matches, from the directory part before
+     * its first wildcard.
+     *
+     * @throws IOException if that directory cannot be listed
+     */
+    public static FileWalker glob(String pattern, Path skip, ExecutorService pool) throws IOException {
+        String[] parts = pattern.split("[/\\\\]", -1);
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : parts.length - wildcard(parts);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        return new FileWalker(base(pattern), matcher, depth, skip, pool);
+    }
+
+    /**
+     * The directory a glob pattern is walked from.
+     */
+    public static Path base(String pattern) {
+        String[] parts = pattern.split("[/\\\\]", -1);
+        String base = String.join("/", Arrays.copyOfRange(parts, 0, wildcard(parts)));
+        return Paths.get(base.isEmpty() && pattern.startsWith("/") ? "/" : base);
+    }
+
+    // index of the first part with a wildcard, the file name part if there is none before it
+    private static int wildcard(String[] parts) {
+        int i = 0;
+        while (i < parts.length - 1 && !isGlob(parts[i]))
+            i++;
+        return i;
+    }
+
+    /**
+     * Whether a name has glob wildcards.
+     */
+    public static boolean isGlob(String name) {
+        for (int i = 0; i < name.length(); i++)
+            if ("*?[{".indexOf(name.charAt(i)) >= 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * The next file, null once the walk is over.
+     *
+     * @throws IOException if a directory cannot be listed
+     */
+    public Path next() throws IOException {
+        while (!stack.isEmpty()) {
+            Level level = stack.peek();
+            if (level.next == level.children.size()) {
+                stack.pop();
+                continue;
+            }
+            Child child = level.children.get(level.next++);
+            if (child.directory) {
+                if (child.listing != null)
+                    stack.push(enter(SchubsArc.join(child.listing, "listing"), level.depth + 1));
+            } else if (matcher == null || matcher.matches(child.path)) {
+                size = child.size;
+                return child.path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Size of the last file returned by next.
+     */
+    public long size() {
+        return size;
+    }
+
+    // a level whose subdirectories start being listed while its files are taken
+    private Level enter(List<Child> children, int depth) {
+        if (depth < maxDepth)
+            for (Child child : children)
+                if (child.directory)
+                    child.listing = pool.submit(() -> list(child.path));
+        return new Level(children, depth);
+    }
+
+    // the files and directories in dir, by name
+    private List<Child> list(Path dir) throws IOException {
+        List<Child> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                boolean directory = attributes.isDirectory();
+                if (attributes.isSymbolicLink()) {
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue; // a broken link
+                    }
+                    directory = false;
+                }
+                if (!directory && !attributes.isRegularFile())
+                    continue;
+                if (skip != null && path.toAbsolutePath().normalize().equals(skip))
+                    continue;
+                children.add(new Child(path, directory, attributes.size()));
+            }
+        }
+        children.sort(Comparator.comparing(child -> child.path.getFileName().toString()));
+        return children;
+    }
+}
@@ -0,0 +1,157 @@
+/*************************************************************************
+ *  Compilation:  javac Histogram.java
+ *
+ *  Description:  Byte frequency counts for the codecs, from arrays, byte
+ *                buffers or whole files.
+ *
+ *  Design: A plain freq[b]++ loop stalls when the same byte repeats, since
+ *          every increment has to wait for the store of the one before it to
+ *          the same counter. The kernel spreads consecutive bytes over 4
+ *          separate sub-histograms so neighbouring increments never touch the
+ *          same counter, and adds them up at the end. Direct buffers are read
+ *          8 bytes at a time with getLong.
+ *
+ *          With more than one worker, files larger than two slices are cut into
+ *          SLICE sized pieces counted on the ForkJoinPool with positional reads, each into its own
+ *          histogram, and merged when the tasks finish.
+ *
+ *  Trade Off: Sub-histograms count in ints, so one call on an array or buffer
+ *          is limited to 2 GB, which Java arrays and buffers are anyway. Files
+ *          are read rather than memory mapped, since a mapping keeps the file
+ *          locked on Windows until the buffer is garbage collected.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public final class Histogram {
+
+    private static final int R = 256; // alphabet size of extended ASCII
+
+    // bytes counted by one task when a file is split
+    static final int SLICE = 1 << 22;
+
+    // bytes read from a file per call
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private Histogram() {
+    }
+
+    /**
+     * Frequency of every byte value in len bytes of b.
+     */
+    public static long[] count(byte[] b, int off, int len) {
+        long[] freq = new long[R];
+        add(b, off, len, freq);
+        return freq;
+    }
+
+    /**
+     * Add the counts of len bytes of b to freq.
+     */
+    public static void add(byte[] b, int off, int len, long[] freq) {
+        int[] c0 = new int[R], c1 = new int[R], c2 = new int[R], c3 = new int[R];
+        int i = off, end = off + len;
+        for (; i + 3 < end; i += 4) {
+            c0[b[i] & 0xFF]++;
+            c1[b[i + 1] & 0xFF]++;
+            c2[b[i + 2] & 0xFF]++;
+            c3[b[i + 3] & 0xFF]++;
+        }
+        for (; i < end; i++)
+            c0[b[i] & 0xFF]++;
+        merge(freq, c0, c1, c2, c3);
+    }
+
+    /**
+     * Add the counts of the bytes between the position and the limit of buf to
+     * freq, the position is left where it was.
+     */
+    public static void add(ByteBuffer buf, long[] freq) {
+        if (buf.hasArray()) {
+            add(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), freq);
+            return;
+        }
+        int[] c0 = new int[R], c1 = new int[R], c2 = new int[R], c3 = new int[R];
+        int i = buf.position(), end = buf.limit();
+        for (; i + 7 < end; i += 8) {
+            // byte order does not matter for counting
+            long w = buf.getLong(i);
+            c0[(int) w & 0xFF]++;
+            c1[(int) (w >>> 8) & 0xFF]++;
+            c2[(int) (w >>> 16) & 0xFF]++;
+            c3[(int) (w >>> 24) & 0xFF]++;
+            c0[(int) (w >>> 32) & 0xFF]++;
+            c1[(int) (w >>> 40) & 0xFF]++;
+            c2[(int) (w >>> 48) & 0xFF]++;
+            c3[(int) (w >>> 56) & 0xFF]++;
+        }
+        for (; i < end; i++)
+            c0[buf.get(i) & 0xFF]++;
+        merge(freq, c0, c1, c2, c3);
+    }
+
+    /**
+     * Frequency of every byte value in the first length bytes of a file, large
+     * files are counted in parallel.
+     *
+     * @throws EOFException if the file is shorter than length
+     */
+    public static long[] count(FileChannel in, long length) throws IOException {
+        return count(in, length, SLICE);
+    }
+
+    // count with the given slice size, so tests can split small files
+    static long[] count(FileChannel in, long length, int slice) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        if (length < 2L * slice || pool.getParallelism() == 1)
+            return count(in, 0, length);
+
+        List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+        for (long start = 0; start < length; start += slice) {
+            long from = start;
+            long size = Math.min(slice, length - start);
+            tasks.add(pool.submit(() -> count(in, from, size)));
+        }
+        long[] freq = new long[R];
+        for (ForkJoinTask<long[]> task : tasks) {
+            long[] part = task.join();
+            for (int c = 0; c < R; c++)
+                freq[c] += part[c];
+        }
+        return freq;
+    }
+
+    // count length bytes of a file starting at position, positional reads are thread safe
+    private static long[] count(FileChannel in, long position, long length) throws IOException {
+        long[] freq = new long[R];
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long done = 0;
+        while (done < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, length - done));
+            int n = in.read(buffer, position + done);
+            if (n == -1)
+                throw new EOFException("File ended after " + (position + done) + " bytes");
+            add(buffer.array(), 0, n, freq);
+            done += n;
+        }
+        return freq;
+    }
+
+    // add the sub-histograms into freq
+    private static void merge(long[] freq, int[] c0, int[] c1, int[] c2, int[] c3) {
+        for (int c = 0; c < R; c++)
+            freq[c] += (long) c0[c] + c1[c] + c2[c] + c3[c];
+    }
+}
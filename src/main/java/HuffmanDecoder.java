@@ -0,0 +1,209 @@
+/*************************************************************************
+ *  Compilation:  javac HuffmanDecoder.java
+ *
+ *  Description:  Table driven Huffman decoder used by Deschubs.
+ *
+ *  Design: Instead of walking a trie one bit at a time, the decoder peeks at
+ *          the next PRIMARY_BITS bits and looks them up in a table. Every
+ *          code of at most PRIMARY_BITS bits fills all the entries that start
+ *          with it, so one array access yields both the symbol and how many
+ *          bits to consume. Longer codes share a primary entry per prefix that
+ *          points to a secondary table indexed by the remaining bits.
+ *
+ *          Entry layout: the low 8 bits hold the code length (or, for a link,
+ *          the width of the secondary table) and the bits above hold the
+ *          symbol (or the secondary table offset). Links are negative.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+
+public final class HuffmanDecoder {
+
+    // bits resolved by the first lookup
+    static final int PRIMARY_BITS = 11;
+
+    private final int[] table;
+
+    /**
+     * Build the decode tables for a prefix code.
+     *
+     * @param code the code of every symbol, right aligned
+     * @param len  the code length of every symbol, 0 if unused, at most 31
+     */
+    public HuffmanDecoder(int[] code, int[] len) {
+        int primarySize = 1 << PRIMARY_BITS;
+
+        // width of the secondary table needed below each primary prefix
+        int[] subBits = new int[primarySize];
+        for (int s = 0; s < len.length; s++) {
+            if (len[s] > PRIMARY_BITS) {
+                int prefix = code[s] >>> (len[s] - PRIMARY_BITS);
+                subBits[prefix] = Math.max(subBits[prefix], len[s] - PRIMARY_BITS);
+            }
+        }
+
+        // lay the secondary tables out after the primary one
+        int[] offset = new int[primarySize];
+        int size = primarySize;
+        for (int p = 0; p < primarySize; p++) {
+            if (subBits[p] > 0) {
+                offset[p] = size;
+                size += 1 << subBits[p];
+            }
+        }
+        table = new int[size];
+        for (int p = 0; p < primarySize; p++)
+            if (subBits[p] > 0)
+                table[p] = Integer.MIN_VALUE | (offset[p] << 8) | subBits[p];
+
+        // every code fills the entries whose leading bits match it
+        for (int s = 0; s < len.length; s++) {
+            int n = len[s];
+            if (n == 0)
+                continue;
+            if (n <= PRIMARY_BITS) {
+                int first = code[s] << (PRIMARY_BITS - n);
+                int entry = (s << 8) | n;
+                for (int i = 0; i < 1 << (PRIMARY_BITS - n); i++)
+                    table[first + i] = entry;
+            } else {
+                int prefix = code[s] >>> (n - PRIMARY_BITS);
+                int rest = n - PRIMARY_BITS;
+                int low = code[s] & ((1 << rest) - 1);
+                int first = offset[prefix] + (low << (subBits[prefix] - rest));
+                int entry = (s << 8) | rest;
+                for (int i = 0; i < 1 << (subBits[prefix] - rest); i++)
+                    table[first + i] = entry;
+            }
+        }
+    }
+
+    /**
+     * Decode 4 independent byte-aligned streams side by side. The bit buffers of
+     * all 4 live in local variables, so the table lookups of one stream do not
+     * wait on the bit position updates of another.
+     *
+     * @param src   holds the streams
+     * @param start byte offset of every stream in src, then the end of the last
+     * @param dst   the decoded symbols
+     * @param from  index in dst of the first symbol of every stream
+     * @param n     number of symbols in every stream
+     * @throws IOException if a stream holds an invalid code or runs out of bits
+     */
+    public void decode4(byte[] src, int[] start, byte[] dst, int[] from, int[] n) throws IOException {
+        int p0 = start[0], p1 = start[1], p2 = start[2], p3 = start[3];
+        int e0 = start[1], e1 = start[2], e2 = start[3], e3 = start[4];
+        int o0 = from[0], o1 = from[1], o2 = from[2], o3 = from[3];
+        long b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+        int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+
+        int common = Math.min(Math.min(n[0], n[1]), Math.min(n[2], n[3]));
+        for (int i = 0; i < common; i++) {
+            // at least 32 bits in every buffer covers the longest code
+            if (c0 < 32) {
+                b0 = (b0 << 32) | word(src, p0, e0);
+                p0 += 4;
+                c0 += 32;
+            }
+            if (c1 < 32) {
+                b1 = (b1 << 32) | word(src, p1, e1);
+                p1 += 4;
+                c1 += 32;
+            }
+            if (c2 < 32) {
+                b2 = (b2 << 32) | word(src, p2, e2);
+                p2 += 4;
+                c2 += 32;
+            }
+            if (c3 < 32) {
+                b3 = (b3 << 32) | word(src, p3, e3);
+                p3 += 4;
+                c3 += 32;
+            }
+            int x0 = lookup(b0, c0);
+            int x1 = lookup(b1, c1);
+            int x2 = lookup(b2, c2);
+            int x3 = lookup(b3, c3);
+            if ((x0 & 0xFF) == 0 || (x1 & 0xFF) == 0 || (x2 & 0xFF) == 0 || (x3 & 0xFF) == 0)
+                throw new IOException("Invalid Huffman code");
+            c0 -= x0 & 0xFF;
+            c1 -= x1 & 0xFF;
+            c2 -= x2 & 0xFF;
+            c3 -= x3 & 0xFF;
+            dst[o0++] = (byte) (x0 >>> 8);
+            dst[o1++] = (byte) (x1 >>> 8);
+            dst[o2++] = (byte) (x2 >>> 8);
+            dst[o3++] = (byte) (x3 >>> 8);
+        }
+
+        // the streams that are longer than the shortest finish one at a time
+        long[] bits = { b0, b1, b2, b3 };
+        int[] count = { c0, c1, c2, c3 };
+        int[] pos = { p0, p1, p2, p3 };
+        int[] out = { o0, o1, o2, o3 };
+        for (int k = 0; k < 4; k++) {
+            for (int i = common; i < n[k]; i++) {
+                if (count[k] < 32) {
+                    bits[k] = (bits[k] << 32) | word(src, pos[k], start[k + 1]);
+                    pos[k] += 4;
+                    count[k] += 32;
+                }
+                int x = lookup(bits[k], count[k]);
+                if ((x & 0xFF) == 0)
+                    throw new IOException("Invalid Huffman code");
+                count[k] -= x & 0xFF;
+                dst[out[k]++] = (byte) (x >>> 8);
+            }
+            // bits taken from the 0s past the end of a stream mean it was cut short
+            if (8L * (pos[k] - start[k + 1]) > count[k])
+                throw new IOException("Reading past end of input stream");
+        }
+    }
+
+    // entry for the code at the top of the count low bits, with the total code length in the low 8 bits
+    private int lookup(long bits, int count) {
+        int entry = table[(int) (bits >>> (count - PRIMARY_BITS)) & ((1 << PRIMARY_BITS) - 1)];
+        if (entry < 0) {
+            int sub = entry & 0xFF;
+            entry = table[((entry >>> 8) & 0x7FFFFF)
+                    + ((int) (bits >>> (count - PRIMARY_BITS - sub)) & ((1 << sub) - 1))];
+            if ((entry & 0xFF) != 0)
+                entry += PRIMARY_BITS;
+        }
+        return entry;
+    }
+
+    // 4 bytes at p, big endian, with 0s past end
+    private static long word(byte[] src, int p, int end) {
+        if (p + 4 <= end)
+            return ((src[p] & 0xFFL) << 24) | ((src[p + 1] & 0xFF) << 16) | ((src[p + 2] & 0xFF) << 8)
+                    | (src[p + 3] & 0xFF);
+        long w = 0;
+        for (int i = 0; i < 4; i++)
+            w = (w << 8) | (p + i < end ? src[p + i] & 0xFF : 0);
+        return w;
+    }
+
+    /**
+     * Decode the next symbol.
+     *
+     * @throws IOException if the bits do not start with a valid code
+     */
+    public int decode(BitReader in) throws IOException {
+        int entry = table[in.peek(PRIMARY_BITS)];
+        if (entry < 0) {
+            in.skip(PRIMARY_BITS);
+            int sub = entry & 0xFF;
+            entry = table[((entry >>> 8) & 0x7FFFFF) + in.peek(sub)];
+        }
+        int n = entry & 0xFF;
+        if (n == 0)
+            throw new IOException("Invalid Huffman code");
+        in.skip(n);
+        return entry >>> 8;
+    }
+}
@@ -0,0 +1,139 @@
+/*************************************************************************
+ *  Compilation:  javac LZWDecoder.java
+ *
+ *  Description:  The string table and output buffer of the LZW decoder in
+ *                Deschubs.
+ *
+ *  Design: Every code above R stands for an earlier code followed by one
+ *          byte, so the table is three arrays indexed by code: the prefix
+ *          code, the last byte and the length of the string. A string is
+ *          written by reserving its length in the output buffer and filling
+ *          it from the end while following the prefix codes back to a single
+ *          byte, which is also the first byte needed for the next entry. No
+ *          String is built, and the buffer goes to the stream whenever it
+ *          fills up, so memory does not grow with the output.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+import java.io.OutputStream;
+
+public final class LZWDecoder {
+    private static final int R = 256; // number of input chars, R is also the EOF codeword
+
+    // bytes collected before they are written to the stream
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int[] prefix; // code of the string without its last byte
+    private final byte[] suffix; // last byte of the string
+    private final int[] length; // length of the string
+    private final int size; // number of codes
+    private final int start; // first code the table assigns
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos; // bytes in buf
+
+    private int code; // next code to assign
+    private int previous = -1; // last code decoded, -1 at the start
+
+    /**
+     * Create a decoder for codes of at most maxWidth bits writing to out, the
+     * table assigns codes from start on.
+     */
+    public LZWDecoder(int maxWidth, int start, OutputStream out) {
+        size = 1 << maxWidth;
+        this.start = start;
+        code = start;
+        prefix = new int[size];
+        suffix = new byte[size];
+        length = new int[size];
+        for (int i = 0; i < R; i++) {
+            suffix[i] = (byte) i;
+            length[i] = 1;
+        }
+        this.out = out;
+        // a string can be as long as the dictionary is large, it always fits after a flush
+        buf = new byte[Math.max(BUFFER_SIZE, size)];
+    }
+
+    /**
+     * Write the string of codeword and add the entry it completes.
+     *
+     * @throws IOException if codeword is not yet defined
+     */
+    public void decode(int codeword) throws IOException {
+        if (codeword < 0)
+            throw new IOException("Invalid LZW code " + codeword);
+        if (previous < 0) {
+            if (codeword >= R)
+                throw new IOException("Invalid LZW code " + codeword);
+            write(codeword);
+            previous = codeword;
+            return;
+        }
+        if (codeword < R || (codeword >= start && codeword < code)) {
+            int first = write(codeword);
+            add(first);
+        } else if (codeword == code && code < size) {
+            // the string the encoder just added: previous string plus its own first byte
+            add(first(previous));
+            write(codeword);
+        } else {
+            throw new IOException("Invalid LZW code " + codeword);
+        }
+        previous = codeword;
+    }
+
+    /**
+     * Forget every entry, the next codeword starts over as after construction.
+     */
+    public void reset() {
+        code = start;
+        previous = -1;
+    }
+
+    // add previous followed by b to the table while there is room
+    private void add(int b) {
+        if (code < size) {
+            prefix[code] = previous;
+            suffix[code] = (byte) b;
+            length[code] = length[previous] + 1;
+            code++;
+        }
+    }
+
+    // first byte of the string of c
+    private int first(int c) {
+        while (c > R)
+            c = prefix[c];
+        return c;
+    }
+
+    // fill the string of c into buf from its end, return its first byte
+    private int write(int c) throws IOException {
+        int len = length[c];
+        if (pos + len > buf.length)
+            flush();
+        int p = pos + len;
+        while (c > R) {
+            buf[--p] = suffix[c];
+            c = prefix[c];
+        }
+        buf[--p] = (byte) c;
+        pos += len;
+        return c;
+    }
+
+    /**
+     * Write the buffered bytes to the stream.
+     */
+    public void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+        out.flush();
+    }
+}
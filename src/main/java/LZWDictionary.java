@@ -0,0 +1,65 @@
+/*************************************************************************
+ *  Compilation:  javac LZWDictionary.java
+ *
+ *  Description:  The string table of the LZW encoder in SchubsL.
+ *
+ *  Design: Every string in an LZW dictionary is an earlier string (its
+ *          prefix code) followed by one byte, so the pair (prefix << 8) | byte
+ *          identifies it. The table stores those int keys and their codes in
+ *          two parallel int arrays with open addressing and linear probing,
+ *          at least twice as large as the number of codes so probe runs stay
+ *          short. Extending the current match by one byte is a single lookup
+ *          that allocates nothing, where a HashMap<String, Integer> needed a
+ *          new String and a hash over the whole match.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.util.Arrays;
+
+public final class LZWDictionary {
+
+    private final int[] keys; // (prefix << 8 | byte) + 1 of every slot, 0 if empty
+    private final int[] codes; // code of the string in every slot
+    private final int mask; // table size - 1
+    private final int shift; // turns a 32-bit hash into a slot index
+
+    /**
+     * Create an empty dictionary for codes of at most maxWidth bits.
+     */
+    public LZWDictionary(int maxWidth) {
+        int bits = maxWidth + 1;
+        keys = new int[1 << bits];
+        codes = new int[1 << bits];
+        mask = (1 << bits) - 1;
+        shift = 32 - bits;
+    }
+
+    /**
+     * Code of the string prefix followed by b. If there is none, the string gets
+     * code, unless code is negative, and -1 is returned.
+     */
+    public int putIfAbsent(int prefix, int b, int code) {
+        int key = ((prefix << 8) | b) + 1;
+        int i = (key * 0x9E3779B1) >>> shift;
+        while (keys[i] != 0) {
+            if (keys[i] == key)
+                return codes[i];
+            i = (i + 1) & mask;
+        }
+        if (code >= 0) {
+            keys[i] = key;
+            codes[i] = code;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove every string, leaving the single bytes implied.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+    }
+}
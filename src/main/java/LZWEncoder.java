@@ -0,0 +1,122 @@
+/*************************************************************************
+ *  Compilation:  javac LZWEncoder.java
+ *
+ *  Description:  The LZW encoder of SchubsL: turns bytes into codewords of
+ *                growing width, handed to a CodeWriter such as BitWriter::write.
+ *
+ *  Design: The longest match so far is kept as a code, and every byte either
+ *          extends it through the LZWDictionary or ends it, writing its code
+ *          and adding the match plus the byte as a new entry. The match and
+ *          the dictionary carry over from one call to the next, so the input
+ *          can arrive in pieces of any size. Once the dictionary is full the
+ *          compression ratio is checked every CHECK_GAP bytes, like Unix
+ *          compress, and the CLEAR codeword empties the dictionary when the
+ *          ratio stops improving.
+ *
+ *  Ethan Spindler
+ *  CS 375
+ *  May 5 2024
+ *
+ *************************************************************************/
+import java.io.IOException;
+
+public final class LZWEncoder {
+    private static final int FIRST = SchubsL.CLEAR + 1; // first code the dictionary assigns
+
+    // once the dictionary is full, the compression ratio is checked every CHECK_GAP input bytes
+    private static final int CHECK_GAP = 10000;
+
+    /**
+     * Receives every codeword with the width it has in the plain format.
+     */
+    public interface CodeWriter {
+        void write(int codeword, int width) throws IOException;
+    }
+
+    private final CodeWriter out;
+    private final int maxWidth;
+    private final int size; // number of codewords
+
+    // single bytes are their own codes and are not stored
+    private final LZWDictionary st;
+    private int code = FIRST; // next code to assign
+    private long written; // codewords written since the last clear, sets the width of the next one
+
+    // totals for the ratio check
+    private long bytesIn, bitsOut;
+    private long checkpoint = CHECK_GAP;
+    private double bestRatio;
+
+    private int current = -1; // code of the longest match so far, -1 before the first byte
+
+    /**
+     * Create an encoder for codes of at most maxWidth bits writing to out.
+     */
+    public LZWEncoder(int maxWidth, CodeWriter out) {
+        this.out = out;
+        this.maxWidth = maxWidth;
+        size = 1 << maxWidth;
+        st = new LZWDictionary(maxWidth);
+    }
+
+    /**
+     * Encode len bytes of b, the last match stays open for the next call.
+     */
+    public void encode(byte[] b, int off, int len) throws IOException {
+        int current = this.current;
+        for (int i = off, end = off + len; i < end; i++) {
+            int nextByte = b[i] & 0xFF;
+            if (current < 0) {
+                current = nextByte;
+                continue;
+            }
+            int combined = st.putIfAbsent(current, nextByte, code < size ? code : -1);
+            if (combined >= 0) {
+                current = combined;
+                continue;
+            }
+            write(current);
+            current = nextByte;
+            if (code < size) {
+                code++;
+            } else {
+                long position = bytesIn + i - off;
+                if (position >= checkpoint)
+                    check(position);
+            }
+        }
+        this.current = current;
+        bytesIn += len;
+    }
+
+    /**
+     * Write the open match and the EOF codeword.
+     */
+    public void finish() throws IOException {
+        if (current >= 0)
+            write(current);
+        current = -1;
+        write(SchubsL.R);
+    }
+
+    // a full dictionary is kept only while the ratio keeps improving
+    private void check(long position) throws IOException {
+        checkpoint = position + CHECK_GAP;
+        double ratio = (double) position / bitsOut;
+        if (ratio > bestRatio) {
+            bestRatio = ratio;
+        } else {
+            write(SchubsL.CLEAR);
+            st.clear();
+            code = FIRST;
+            written = 0;
+            bestRatio = 0;
+        }
+    }
+
+    private void write(int codeword) throws IOException {
+        int width = SchubsL.width(written++, FIRST, maxWidth);
+        out.write(codeword, width);
+        bitsOut += width;
+    }
+}
@@ -2,11 +2,24 @@
 /*************************************************************************
  *  Compilation:  javac SchubsArc.java
  *  Execution:    java SchubsArc <archive-name> <file1> <file2> ... OR java SchubsArc <archive-name> <GLOB>
+ *                OR java SchubsArc <archive-name> <directory> OR java SchubsArc <archive-name> '<GLOB>'
  *  Run Example:  java SchubsArc ../src/SchubsArcTests ../src/SchubsArcTests/blee.txt ../src/SchubsArcTests/blue.txt
  *                  OR
  *                java SchubsArc ../src/SchubsArcTests ../src/SchubsArcTests/*.txt
+ *                  OR
+ *                java SchubsArc ../src/SchubsArcTests '../src/**.txt'   (the pattern is matched here, not by the shell)
  * 
  *  Description:  This program compresses a file using Huffman encoding and then archives the compressed files into a single archive file.
+ *                Inputs are compressed in memory on a pool of one worker per core, as far ahead of the archive writer
+ *                as a quarter of the heap in input bytes allows, and appended in the order they were given. Every
+ *                input is read once and its entry written once, no .hh file is left next to it. Inputs over
+ *                STREAM_SIZE are not held in memory: the writer compresses them as blocks straight into the archive
+ *                (their blocks still encoded on all cores) and fills in the entry size afterwards.
+ *                The archive ends with a central directory (see ArchiveDirectory), so Deschubs can list it and extract
+ *                a single entry without reading the others.
+ *                A directory is archived with every file under it, and a quoted glob pattern with every file it
+ *                matches. Both are walked on the same pool (see FileWalker) and their files go to the compressors as
+ *                they are found, in name order, without listing the whole tree first or passing it through the shell.
  * 
  *  Test Instructions: mvn test
  *  
@@ -16,36 +29,55 @@
  *  
  *
  *************************************************************************/
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SchubsArc {
+
+    // inputs compressed at the same time, one per core
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+    // input bytes in flight beyond the first one, a share of the heap
+    private static final long MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    // larger inputs are not compressed in memory but streamed into the archive by the writer
+    static final long STREAM_SIZE = 8L * SchubsH.BLOCK_SIZE;
+
     public static void main(String[] args) throws IOException {
-        File in1 = null;
-        BinaryIn bin1 = null;
-        BinaryOut out = null;
+        DataOutputStream out = null;
 
-        char separator = (char) 255; // all ones 11111111
+        int separator = 255; // all ones 11111111
 
         if (args.length < 2) {
             System.out.println("Usage: java SchubsArc <archive-name> <file1> <file2> ...");
             throw new IllegalArgumentException("Incorrect number of arguments.");
         }
 
-        File input = null;
         for (int i = 1; i < args.length; i++) {
-            input = new File(args[i]);
-            if (!input.exists()) {
+            // directories are archived with everything under them, patterns are matched in the walk
+            boolean pattern = FileWalker.isGlob(args[i]) && Files.isDirectory(FileWalker.base(args[i]));
+            if (!new File(args[i]).exists() && !pattern) {
                 System.out.println("    File " + args[i] + " does not exist.");
                 System.out.println("    Please provide a valid file name.");
                 throw new IllegalArgumentException("File " + args[i] + " does not exist.");
             }
-
-            if (input.isDirectory()) {
-                System.out.println("    File " + args[i] + " is a directory.");
-                System.out.println("    SchubsArc is for files only.");
-                throw new IllegalArgumentException("File " + args[i] + " is a directory.");
-            }
         }
 
         // String archiveName = args[0];
@@ -61,44 +93,90 @@ public class SchubsArc {
 
         String archivePath = args[0] + File.separator;
         archivePath += archiveName + ".zh";
-        out = new BinaryOut(archivePath);
+        // whole bytes only, so entries go to the file in bulk
+        FileOutputStream file = new FileOutputStream(archivePath);
+        FileChannel channel = file.getChannel(); // patches the sizes of streamed entries
+        out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
         // System.out.println(args[0]);
 
+        // entries are followed by a directory of their offsets, see ArchiveDirectory
+        ArchiveDirectory directory = new ArchiveDirectory();
+        long position = 0; // bytes written to the archive so far
+
+        // inputs are compressed in memory on the pool ahead of the writer, which takes them in order
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS);
+        ArrayDeque<Input> pending = new ArrayDeque<>();
+        Set<String> names = new HashSet<>(); // entry names taken, a second file under one would overwrite the first
+        long inFlight = 0; // input bytes submitted but not yet written, their entries are about as large
+
         try {
-            for (int i = 1; i < args.length; i++) {
-                String fileName = args[i] + ".hh";
-                in1 = new File(fileName);
-                File argFile = new File(args[i]);
-                if (argFile.length() == 0) {
-                    System.out.println("    File " + args[i] + " is empty.");
-                } else {
-                    SchubsH.compress(args[i], args[i] + ".hh");
-                    System.out.println("File " + args[i] + " compressed successfully.");
+            Inputs inputs = new Inputs(args, Paths.get(archivePath), pool);
+            Input waiting = inputs.next(); // next input to submit, null once there are no more
+            while (waiting != null || !pending.isEmpty()) {
+                // stay within a couple of entries per worker and the memory budget, but always submit one
+                while (waiting != null && (pending.isEmpty()
+                        || pending.size() < 2 * WORKERS && inFlight + waiting.buffered() <= MEMORY_BUDGET)) {
+                    if (!names.add(waiting.fileName)) {
+                        System.out.println("    File " + waiting.name + " is already archived as "
+                                + waiting.fileName + ".");
+                    } else {
+                        if (!waiting.streamed) {
+                            String name = waiting.name;
+                            waiting.entry = pool.submit(() -> compressEntry(name));
+                            inFlight += waiting.buffered();
+                        }
+                        pending.add(waiting);
+                    }
+                    waiting = inputs.next();
                 }
-                if (!in1.exists() || !in1.isFile()) {
-                    System.out.println("    File " + fileName + " does not exist or is not a regular file.");
+                if (pending.isEmpty())
                     continue;
+                Input input = pending.poll();
+                String fileName = input.fileName;
+                byte[] entry = null;
+                if (!input.streamed) {
+                    entry = join(input.entry, "compressing");
+                    inFlight -= input.buffered();
+                    if (entry == null) {
+                        System.out.println("    File " + input.name + " is empty.");
+                        continue;
+                    }
                 }
 
-                long fileSize = in1.length();
+                long fileSize = input.streamed ? 0 : entry.length; // patched below for a streamed entry
                 int fileNameSize = fileName.length();
 
-                out.write(fileNameSize);
-                out.write(separator);
+                out.writeInt(fileNameSize);
+                out.writeByte(separator);
 
-                out.write(fileName);
-                out.write(separator);
+                ArchiveDirectory.writeName(fileName, out);
+                out.writeByte(separator);
 
-                out.write(fileSize);
-                out.write(separator);
+                out.writeLong(fileSize);
+                out.writeByte(separator);
 
-                bin1 = new BinaryIn(fileName);
-                while (!bin1.isEmpty()) {
-                    out.write(bin1.readChar());
+                long dataOffset = position + ArchiveDirectory.HEADER_SIZE + fileNameSize;
+                if (!input.streamed) {
+                    out.write(entry);
+                } else {
+                    // too large to hold: written as blocks straight into the archive, its size known at the end
+                    SchubsH.compressBlocks(input.name, out, SchubsH.VERSION_BLOCKS, SchubsH.BLOCK_SIZE,
+                            SchubsH.MAX_CODE_LENGTH);
+                    out.flush();
+                    fileSize = channel.position() - dataOffset;
+                    ByteBuffer size = ByteBuffer.allocate(8).putLong(0, fileSize);
+                    while (size.hasRemaining())
+                        channel.write(size, dataOffset - 9 + size.position());
                 }
+                System.out.println("File " + input.name + " compressed successfully.");
+                directory.add(new ArchiveDirectory.Entry(fileName, position, dataOffset, fileSize, input.size,
+                        ArchiveDirectory.CODEC_HUFFMAN));
+                position = dataOffset + fileSize;
                 System.out.println(fileName + " archived successfully.");
             }
+            directory.write(out, position);
         } finally {
+            pool.shutdownNow();
             // SchubsH.compress(archivePath, archivePath + ".zh");
             File archiveFinal = new File(archivePath);
             if (archiveFinal.exists() || archiveFinal.isFile())
@@ -107,4 +185,96 @@ public class SchubsArc {
                 out.close();
         }
     }
+
+    // a file to archive, with its size when it was found
+    private static final class Input {
+        final String name;
+        final String fileName; // of its entry, the .hh file Deschubs extracts it to, relative like tar's
+        final long size;
+        final boolean streamed; // too large to compress in memory, the writer streams it into the archive
+        Future<byte[]> entry; // its .hh contents once submitted, null if it is streamed
+
+        Input(String name, long size) {
+            this.name = name;
+            this.size = size;
+            fileName = ArchiveDirectory.entryName(name) + ".hh";
+            streamed = size > STREAM_SIZE;
+        }
+
+        // input bytes held in memory while it waits for the writer, 0 if it is streamed
+        long buffered() {
+            return streamed ? 0 : size;
+        }
+    }
+
+    // the files named by the arguments, directories and patterns walked only as far as they are taken
+    private static final class Inputs {
+        private final String[] args;
+        private final Path archive; // never archived into itself
+        private final ExecutorService pool;
+        private int next = 1; // next argument
+        private FileWalker walker; // of the directory or pattern being taken
+        private String walked; // its argument
+        private int found; // files it returned
+
+        Inputs(String[] args, Path archive, ExecutorService pool) {
+            this.args = args;
+            this.archive = archive;
+            this.pool = pool;
+        }
+
+        // the next file, null once there are no more
+        Input next() throws IOException {
+            while (true) {
+                if (walker != null) {
+                    Path path = walker.next();
+                    if (path != null) {
+                        found++;
+                        return new Input(path.toString(), walker.size());
+                    }
+                    if (found == 0)
+                        System.out.println("    No file matches " + walked + ".");
+                    walker = null;
+                }
+                if (next == args.length)
+                    return null;
+                String name = args[next++];
+                File file = new File(name);
+                if (file.isDirectory())
+                    walker = new FileWalker(file.toPath(), null, Integer.MAX_VALUE, archive, pool);
+                else if (file.exists())
+                    return new Input(name, file.length());
+                else
+                    walker = FileWalker.glob(name, archive, pool);
+                walked = name;
+                found = 0;
+            }
+        }
+    }
+
+    // the .hh contents of one input, null if it is empty and gets no entry
+    private static byte[] compressEntry(String name) throws IOException {
+        File file = new File(name);
+        if (file.length() == 0)
+            return null;
+        ByteArrayOutputStream entry = new ByteArrayOutputStream((int) Math.min(file.length(), Integer.MAX_VALUE - 8));
+        SchubsH.compress(name, entry, SchubsH.VERSION_CANONICAL, SchubsH.MAX_CODE_LENGTH);
+        return entry.toByteArray();
+    }
+
+    // wait for a task on a pool, passing on what went wrong in it; what names the task in messages
+    static <T> T join(Future<T> task, String what) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while " + what);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
 }
\ No newline at end of file
@@ -1,9 +1,15 @@
 
 /*************************************************************************
  *  Compilation:  javac SchubsH.java
- *  Execution:    java SchubsH file1 file2 file3 ... OR java SchubsH <GLOB>
+ *  Execution:    java SchubsH [-t|-b|-s|-a] [-m bits] file1 file2 file3 ... OR java SchubsH [-t|-b|-s|-a] [-m bits] <GLOB>
+ *                java SchubsH -a - < input > input.hh
  *  Run Example:  java SchubsH ../src/SchubsHTests/test1.txt
  *                java SchubsH ../src/SchubsHTests/*.txt
+ *                java SchubsH -t ../src/SchubsHTests/test1.txt   (trie header instead of code lengths)
+ *                java SchubsH -m 24 ../src/SchubsHTests/test1.txt   (codes up to 24 bits, default 15)
+ *                java SchubsH -b ../src/SchubsHTests/test1.txt   (1 MB blocks compressed on all cores)
+ *                java SchubsH -s ../src/SchubsHTests/test1.txt   (blocks of 4 interleaved streams)
+ *                cat test1.txt | java SchubsH -a - > test1.txt.hh   (one pass adaptive codes, stdin to stdout)
  * 
  *  Description:  This program compresses a given file using Huffman encoding.
  * 
@@ -24,6 +30,20 @@
  *          Finally, the encoded data is generated by replacing each input character with its corresponding Huffman code.
  *          Since the most frequent characters have shorter codes, the resulting encoded data is more compact, leading to 
  *          efficient storage and transmission of information.
+ *
+ *          The input is read twice in 64 KB pieces, once to count frequencies (Histogram, in parallel
+ *          for large files) and once to encode, so memory use does not depend on the file size. The
+ *          original size is stored as a varint of up to 64 bits.
+ *
+ *          With -b the input is cut into 1 MB blocks. Every block gets its own frequency counts and
+ *          code lengths, so the codes follow statistics that drift through the file, and the blocks
+ *          are encoded on a ForkJoinPool while one thread writes them out in order. An index of block
+ *          offsets at the end of the file lets Deschubs decode the blocks in parallel as well.
+ *          -s also cuts every block into 4 segments coded as separate streams behind a small jump
+ *          table, so a single Deschubs thread can decode the 4 independent streams in one loop.
+ *
+ *          With -a the codes are adaptive (see AdaptiveHuffman): one pass, no length and no code
+ *          table, so input of unknown length can be piped through with "-" as the file name.
  * 
  *  Test Instructions: mvn test
  *   
@@ -35,22 +55,54 @@
  *
  *************************************************************************/
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class SchubsH {
 
     // alphabet size of extended ASCII
     private static final int R = 256;
 
+    // every .hh file starts with MAGIC followed by a one byte format version;
+    // legacy files have no header and start with the ObjectOutputStream magic 0xACED
+    static final int MAGIC = 0x4848; // "HH"
+    static final int VERSION_TRIE = 2; // bit-packed trie followed by bit-packed codes
+    static final int VERSION_CANONICAL = 3; // varint length, code lengths, canonical codes
+    static final int VERSION_BLOCKS = 4; // independent blocks, each with its own code lengths
+    static final int VERSION_ADAPTIVE = 5; // one pass adaptive Huffman codes ending in an EOF symbol
+    static final int VERSION_STREAMS = 6; // version 4 blocks, each split into 4 interleaved streams
+
+    // longest Huffman code written unless asked otherwise, keeps decode tables small
+    static final int MAX_CODE_LENGTH = 15;
+
+    // bytes read from the input per call in the encoding pass
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // uncompressed bytes per block in the block format
+    static final int BLOCK_SIZE = 1 << 20;
+
+    // the block format ends with an index of every block and a fixed size footer:
+    // long offset of the index, int INDEX_MAGIC
+    static final int INDEX_MAGIC = 0x48484958; // "HHIX"
+    static final int INDEX_ENTRY_SIZE = 24; // long payload offset, int payload size, long offset, int size
+    static final int FOOTER_SIZE = 12;
+
+    // version 6 block payloads start with the sizes of the first 3 of their 4 streams
+    static final int STREAMS = 4;
+    static final int JUMP_TABLE_SIZE = 12;
+
     // Huffman trie node
-    private static class Node implements Comparable<Node> {
+    private static class Node {
         private final char ch;
-        private final int freq;
         private final Node left, right;
 
-        Node(char ch, int freq, Node left, Node right) {
+        Node(char ch, Node left, Node right) {
             this.ch = ch;
-            this.freq = freq;
             this.left = left;
             this.right = right;
         }
@@ -61,120 +113,359 @@ public class SchubsH {
             return (left == null && right == null);
         }
 
-        // compare, based on frequency
-        public int compareTo(Node that) {
-            return this.freq - that.freq;
-        }
     }
 
     // compress bytes from standard input and write to standard output
     public static void compress(String filename, String filename2) {
-        try {
-            // read the input file
-            FileInputStream fis = new FileInputStream(filename);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
+        compress(filename, filename2, VERSION_CANONICAL);
+    }
+
+    // compress a file into the given .hh format version
+    public static void compress(String filename, String filename2, int version) {
+        compress(filename, filename2, version, MAX_CODE_LENGTH);
+    }
+
+    // compress a file into the given .hh format version with codes of at most maxLength bits
+    public static void compress(String filename, String filename2, int version, int maxLength) {
+        checkMaxLength(maxLength);
+        try (OutputStream os = new FileOutputStream(filename2)) {
+            compress(filename, os, version, maxLength);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // checked by the file overload too, before it creates the output file
+    private static void checkMaxLength(int maxLength) {
+        if (maxLength < 8 || maxLength > CanonicalCode.MAX_LENGTH)
+            throw new IllegalArgumentException("Maximum code length must be between 8 and "
+                    + CanonicalCode.MAX_LENGTH + ": " + maxLength);
+    }
+
+    // compress a file into a stream holding exactly what the .hh file would, such as an archive entry
+    public static void compress(String filename, OutputStream os, int version, int maxLength) throws IOException {
+        checkMaxLength(maxLength);
+        if (version == VERSION_BLOCKS || version == VERSION_STREAMS) {
+            compressBlocks(filename, os, version, BLOCK_SIZE, maxLength);
+            return;
+        }
+        if (version == VERSION_ADAPTIVE) {
+            try (InputStream in = new FileInputStream(filename)) {
+                AdaptiveHuffman.compress(in, os);
             }
-            fis.close();
-
-            byte[] input = baos.toByteArray();
-
-            // tabulate frequency counts
-            int[] freq = new int[R];
-            for (int i = 0; i < input.length; i++)
-                freq[input[i] & 0xFF]++;
-
-            // build Huffman trie
-            Node root = buildTrie(freq);
-
-            // build code table
-            String[] st = new String[R];
-            buildCode(st, root, "");
-
-            // create output stream for writing compressed file
-            FileOutputStream fos = new FileOutputStream(filename2);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-
-            // write trie for decoder
-            writeTrie(root, oos);
-
-            // write number of bytes in original uncompressed message
-            oos.writeInt(input.length);
-
-            // use Huffman code to encode input and write to compressed file
-            for (int i = 0; i < input.length; i++) {
-                String code = st[input[i] & 0xFF];
-                for (int j = 0; j < code.length(); j++) {
-                    if (code.charAt(j) == '0') {
-                        oos.writeBoolean(false);
-                    } else if (code.charAt(j) == '1') {
-                        oos.writeBoolean(true);
-                    } else
-                        throw new RuntimeException("Illegal state");
+            return;
+        }
+        try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            // first pass: tabulate frequency counts
+            long length = in.size();
+            long[] freq = Histogram.count(in, length);
+
+            // Huffman code lengths, replaced by optimal length-limited ones if too long
+            int[] len = codeLengths(freq, maxLength);
+
+            BitWriter out = new BitWriter(os);
+
+            // write header so Deschubs can tell the format version
+            out.write(MAGIC, 16);
+            out.write(version, 8);
+
+            // code table for the second pass
+            int[] code = new int[R];
+            byte[] bits = new byte[R];
+
+            if (version == VERSION_TRIE) {
+                // version 2: int length, preorder trie
+                if (length > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("Trie format is limited to 2 GB: " + filename);
+                out.write((int) length, 32);
+                if (length > 0) {
+                    Node root = buildTrie(len);
+                    writeTrie(root, out);
+                    buildCode(code, bits, root, 0, 0);
+                }
+            } else if (version == VERSION_CANONICAL) {
+                // version 3: varint length, code lengths
+                writeLength(length, out);
+                if (length > 0) {
+                    CanonicalCode.writeLengths(len, out);
+                    code = CanonicalCode.codes(len);
+                    for (int c = 0; c < R; c++)
+                        bits[c] = (byte) len[c];
                 }
+            } else
+                throw new IllegalArgumentException("Unknown .hh version " + version);
+
+            // second pass: use Huffman code to encode input and write to compressed file
+            in.position(0);
+            long encoded = 0;
+            while (encoded < length && in.read(buffer) != -1) {
+                int n = (int) Math.min(buffer.position(), length - encoded);
+                encode(buffer.array(), 0, n, code, bits, out);
+                encoded += n;
+                buffer.clear();
             }
+            if (encoded != length)
+                throw new IOException("File " + filename + " changed while it was compressed");
+
+            // flush the output stream, padding the last byte with 0s
+            out.flush();
+        }
+    }
 
-            // flush and close output stream
-            oos.flush();
-            oos.close();
+    // compress a file as independent blocks encoded in parallel, each with its own code table
+    public static void compressBlocks(String filename, String filename2, int blockSize, int maxLength) {
+        compressBlocks(filename, filename2, VERSION_BLOCKS, blockSize, maxLength);
+    }
+
+    // compress a file as blocks, version 6 splits every block into interleaved streams
+    public static void compressBlocks(String filename, String filename2, int version, int blockSize,
+            int maxLength) {
+        try (OutputStream os = new FileOutputStream(filename2)) {
+            compressBlocks(filename, os, version, blockSize, maxLength);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // build the Huffman trie given frequencies
-    private static Node buildTrie(int[] freq) {
-        // initialize priority queue with singleton trees
-        PriorityQueue<Node> pq = new PriorityQueue<>();
-        for (char i = 0; i < R; i++)
-            if (freq[i] > 0)
-                pq.add(new Node(i, freq[i], null, null));
+    // compress a file as blocks into a stream, the index offsets count from the start of the stream
+    public static void compressBlocks(String filename, OutputStream os, int version, int blockSize,
+            int maxLength) throws IOException {
+        boolean streams = version == VERSION_STREAMS;
+        try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            // version 4 and 6: varint length, varint block count, then the blocks in order
+            BitWriter out = new BitWriter(os);
+            out.write(MAGIC, 16);
+            out.write(version, 8);
+            writeBlocks(in, filename, blockSize, out, INDEX_MAGIC,
+                    data -> encodeBlock(data, data.length, maxLength, streams));
+        }
+    }
+
+    // encodes the data of one block into its payload
+    interface BlockEncoder {
+        byte[] encode(byte[] data) throws IOException;
+    }
+
+    // after the header already in out: varint length, varint block count, the blocks of the file encoded
+    // on the ForkJoinPool and written in order, then the index and its footer
+    static void writeBlocks(FileChannel in, String filename, int blockSize, BitWriter out, int indexMagic,
+            BlockEncoder encoder) throws IOException {
+        long length = in.size();
+        long blocks = (length + blockSize - 1) / blockSize;
+        writeLength(length, out);
+        writeLength(blocks, out);
+
+        // keep a couple of blocks per worker in flight, the writer takes them in order
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = 2 * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        ArrayDeque<Integer> sizes = new ArrayDeque<>();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(index);
+        long done = 0;
+        for (long b = 0; b < blocks; b++) {
+            byte[] data = new byte[(int) Math.min(blockSize, length - b * blockSize)];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining())
+                if (in.read(buffer) == -1)
+                    throw new IOException("File " + filename + " changed while it was compressed");
+
+            pending.add(pool.submit(() -> encoder.encode(data)));
+            sizes.add(data.length);
+            if (pending.size() >= window)
+                done = writeBlock(done, sizes.poll(), pending.poll().join(), out, entries);
+        }
+        while (!pending.isEmpty())
+            done = writeBlock(done, sizes.poll(), pending.poll().join(), out, entries);
+
+        // index and footer let Deschubs find every block without reading the ones before it
+        long indexOffset = out.position();
+        out.write(index.toByteArray(), 0, index.size());
+        out.write((int) (indexOffset >>> 32), 32);
+        out.write((int) indexOffset, 32);
+        out.write(indexMagic, 32);
+        out.flush();
+    }
+
+    // block header: varint uncompressed size, varint payload size, then the payload;
+    // returns the uncompressed offset of the next block
+    static long writeBlock(long offset, int size, byte[] payload, BitWriter out, DataOutputStream index)
+            throws IOException {
+        writeLength(size, out);
+        writeLength(payload.length, out);
+        index.writeLong(out.position());
+        index.writeInt(payload.length);
+        index.writeLong(offset);
+        index.writeInt(size);
+        out.write(payload, 0, payload.length);
+        return offset + size;
+    }
+
+    // code lengths and codes of one block, padded to a whole byte; with streams the block is cut
+    // into 4 segments coded as separate streams, after a jump table of the first 3 stream sizes
+    static byte[] encodeBlock(byte[] data, int n, int maxLength, boolean streams) throws IOException {
+        long[] freq = Histogram.count(data, 0, n);
+        int[] len = codeLengths(freq, maxLength);
+        int[] code = CanonicalCode.codes(len);
+        byte[] bits = new byte[R];
+        for (int c = 0; c < R; c++)
+            bits[c] = (byte) len[c];
+
+        if (!streams) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(n / 2 + 512);
+            BitWriter out = new BitWriter(payload);
+            CanonicalCode.writeLengths(len, out);
+            encode(data, 0, n, code, bits, out);
+            out.flush();
+            return payload.toByteArray();
+        }
+
+        // segments 0 to 2 hold (n + 3) / 4 bytes each, segment 3 the rest;
+        // the code lengths, padded to a whole byte, lead stream 0
+        int segment = (n + STREAMS - 1) / STREAMS;
+        ByteArrayOutputStream[] stream = new ByteArrayOutputStream[STREAMS];
+        for (int k = 0; k < STREAMS; k++) {
+            stream[k] = new ByteArrayOutputStream(segment / 2 + 512);
+            BitWriter out = new BitWriter(stream[k]);
+            if (k == 0) {
+                CanonicalCode.writeLengths(len, out);
+                out.align();
+            }
+            int end = k == STREAMS - 1 ? n : Math.min((k + 1) * segment, n);
+            encode(data, Math.min(k * segment, n), end, code, bits, out);
+            out.flush();
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(JUMP_TABLE_SIZE + n / 2 + 512);
+        DataOutputStream jump = new DataOutputStream(payload);
+        for (int k = 0; k < STREAMS - 1; k++)
+            jump.writeInt(stream[k].size());
+        for (int k = 0; k < STREAMS; k++)
+            stream[k].writeTo(payload);
+        return payload.toByteArray();
+    }
+
+    // encode the bytes of input from off up to end
+    private static void encode(byte[] input, int off, int end, int[] code, byte[] len, BitWriter out)
+            throws IOException {
+        for (int i = off; i < end; i++) {
+            int c = input[i] & 0xFF;
+            out.write(code[c], len[c]);
+        }
+    }
+
+    // Huffman code lengths, package-merge takes over when a code would exceed maxLength
+    static int[] codeLengths(long[] freq, int maxLength) {
+        int[] len = CodeLengths.huffman(freq);
+        if (CanonicalCode.maxLength(len) > maxLength)
+            len = CodeLengths.limited(freq, maxLength);
+        return len;
+    }
+
+    // the trie of the canonical code for the given lengths, a lone symbol is a root leaf
+    private static Node buildTrie(int[] len) {
+        int used = 0;
+        char last = 0;
+        for (char c = 0; c < R; c++) {
+            if (len[c] > 0) {
+                used++;
+                last = c;
+            }
+        }
+        if (used == 1)
+            return new Node(last, null, null);
+        return buildTrie(CanonicalCode.codes(len), len, 0, 0);
+    }
+
+    // build the trie of a complete prefix code, the subtree below the given code prefix
+    private static Node buildTrie(int[] code, int[] len, int prefix, int depth) {
+        for (char c = 0; c < R; c++)
+            if (depth > 0 && len[c] == depth && code[c] == prefix)
+                return new Node(c, null, null);
+        return new Node('\0', buildTrie(code, len, prefix << 1, depth + 1),
+                buildTrie(code, len, (prefix << 1) | 1, depth + 1));
+    }
 
-        // merge two smallest trees
-        while (pq.size() > 1) {
-            Node left = pq.poll();
-            Node right = pq.poll();
-            Node parent = new Node('\0', left.freq + right.freq, left, right);
-            pq.add(parent);
+    // write a 64-bit length 7 bits at a time, low bits first, high bit set while more follow
+    static void writeLength(long length, BitWriter out) throws IOException {
+        while ((length & ~0x7FL) != 0) {
+            out.write((int) (length & 0x7F) | 0x80, 8);
+            length >>>= 7;
         }
-        return pq.poll();
+        out.write((int) length, 8);
     }
 
     // write bitstring-encoded trie to output stream
-    private static void writeTrie(Node x, ObjectOutputStream oos) throws IOException {
+    // one bit per node and 8 bits per leaf symbol
+    private static void writeTrie(Node x, BitWriter out) throws IOException {
         if (x.isLeaf()) {
-            oos.writeBoolean(true);
-            oos.writeChar(x.ch);
+            out.write(true);
+            out.write(x.ch, 8);
             return;
         }
-        oos.writeBoolean(false);
-        writeTrie(x.left, oos);
-        writeTrie(x.right, oos);
+        out.write(false);
+        writeTrie(x.left, out);
+        writeTrie(x.right, out);
     }
 
-    // make a lookup table from symbols and their encodings
-    private static void buildCode(String[] st, Node x, String s) {
+    // make a lookup table from symbols and their encodings, a lone root leaf takes no bits
+    private static void buildCode(int[] code, byte[] len, Node x, int c, int depth) {
         if (!x.isLeaf()) {
-            buildCode(st, x.left, s + '0');
-            buildCode(st, x.right, s + '1');
+            buildCode(code, len, x.left, c << 1, depth + 1);
+            buildCode(code, len, x.right, (c << 1) | 1, depth + 1);
         } else {
-            st[x.ch] = s;
+            code[x.ch] = c;
+            len[x.ch] = (byte) depth;
         }
     }
 
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("    Usage: java SchubsH file1 file2 file3 ... OR java SchubsH <GLOB>");
+        // leading options pick the output format
+        int version = VERSION_CANONICAL;
+        int maxLength = MAX_CODE_LENGTH;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-") && !args[first].equals("-")) {
+            if (args[first].equals("-t")) {
+                version = VERSION_TRIE;
+            } else if (args[first].equals("-b")) {
+                version = VERSION_BLOCKS;
+            } else if (args[first].equals("-s")) {
+                version = VERSION_STREAMS;
+            } else if (args[first].equals("-a")) {
+                version = VERSION_ADAPTIVE;
+            } else if (args[first].equals("-m") && first + 1 < args.length) {
+                maxLength = Integer.parseInt(args[++first]);
+            } else
+                throw new IllegalArgumentException("Unknown option " + args[first]);
+            first++;
+        }
+        if (args.length == first) {
+            System.out.println("    Usage: java SchubsH [-t|-b|-s|-a] [-m bits] file1 file2 file3 ... OR java SchubsH [-t|-b|-s|-a] [-m bits] <GLOB>");
+            System.out.println("    -t: write the trie based format instead of canonical code lengths");
+            System.out.println("    -b: split the input into 1 MB blocks encoded in parallel");
+            System.out.println("    -s: like -b, with every block split into 4 streams decoded side by side");
+            System.out.println("    -a: one pass adaptive codes, - reads standard input and writes standard output");
+            System.out.println("    -m: longest Huffman code in bits, 8 to " + CanonicalCode.MAX_LENGTH
+                    + " (default " + MAX_CODE_LENGTH + ")");
             System.out.println("    file1: file to be compressed");
             System.out.println("    file2: compressed file");
             System.out.println("    file3: file to be compressed ...");
             System.out.println("    Incorrect number of arguments.");
             throw new IllegalArgumentException("Incorrect number of arguments.");
         }
-        for (int i = 0; i < args.length; i++) {
+        if (args[first].equals("-")) {
+            // a pipe can only be read once, so only the adaptive format works here
+            if (version != VERSION_ADAPTIVE || args.length != first + 1)
+                throw new IllegalArgumentException("Standard input needs -a and no other files");
+            try {
+                AdaptiveHuffman.compress(System.in, System.out);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        for (int i = first; i < args.length; i++) {
             File in = new File(args[i]);
             if (!in.exists()) {
                 System.out.println("    File " + args[i] + " does not exist.");
@@ -182,7 +473,7 @@ public class SchubsH {
             } else {
                 String filename = args[i];
                 String filename2 = filename + ".hh";
-                compress(filename, filename2);
+                compress(filename, filename2, version, maxLength);
             }
         }
     }
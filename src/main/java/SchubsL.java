@@ -1,8 +1,12 @@
 
 /*************************************************************************
  *  Compilation:  javac SchubsL.java
- *  Execution:    java SchubsL file1.txt file2.txt file3.txt ... OR java SchubsL <GLOB>
+ *  Execution:    java SchubsL [-w bits] [-c|-e] file1.txt file2.txt file3.txt ... OR java SchubsL [-w bits] [-c|-e] <GLOB>
+ *                java SchubsL [-w bits] - < input > input.ll
  *  Run Example:  java SchubsL ../src/SchubsH/test1.txt
+ *                java SchubsL -w 20 ../src/SchubsH/test1.txt   (codes up to 20 bits, default 16)
+ *                java SchubsL -c ../src/SchubsH/test1.txt   (4 MB chunks compressed on all cores)
+ *                java SchubsL -e ../src/SchubsH/test1.txt   (chunks with Huffman coded codes)
  * 
  *  Description:  This program compresses a given file using LZW encoding.
  * 
@@ -19,6 +23,35 @@
  *          One of the key features of LZW encoding is its adaptability to the input data. Unlike fixed-length codes used in some other 
  *          compression techniques, LZW adapts its dictionary dynamically based on the patterns present in the input data, 
  *          leading to efficient compression for a wide range of data types.
+ *
+ *          The .ll file starts with MAGIC, a format version and the maximum code width. Codes are written
+ *          in binary, most significant bit first as BinaryOut does, 9 bits wide at first and one bit wider each time the dictionary
+ *          size passes a power of two, up to the maximum width (9 to 20 bits, 16 unless -w says otherwise).
+ *          Code R (256) marks the end of the data. Encoder and decoder both derive the width from the
+ *          number of codes written since the last clear.
+ *
+ *          Once the dictionary is full it stops growing, and like Unix compress the encoder then checks
+ *          the compression ratio every 10000 input bytes. As soon as it stops improving, the dictionary
+ *          no longer fits the data, so the CLEAR code (257) is written and both sides start over with
+ *          an empty dictionary and 9-bit codes. New codes therefore start at 258 (version 3); version 2
+ *          files, without CLEAR, started at 257.
+ *          The encoder (LZWEncoder) looks strings up by (prefix code, next byte) in an LZWDictionary. Input and output
+ *          are streamed through fixed buffers, so memory use does not depend on the file size, and
+ *          "-" as the file name compresses standard input to standard output.
+ *          Older .ll files held the codes as decimal text written with writeUTF; Deschubs still reads them.
+ *
+ *          LZW is serial within a stream, every code depends on the dictionary built before it. With -c
+ *          the file is cut into 4 MB chunks, each encoded with its own dictionary on a ForkJoinPool while
+ *          one thread writes them out in order, followed by a chunk index as in SchubsH -b, so Deschubs
+ *          can decode the chunks in parallel too. Every chunk starts with an empty dictionary, which
+ *          costs a little ratio at each chunk boundary.
+ *
+ *          -e adds a second stage to every chunk (version 5). The top 8 bits of each codeword, at the
+ *          width it would be written with, are Huffman coded with a canonical code as in SchubsH; the
+ *          bits below follow unchanged. A first encoder pass over the chunk only counts the top bits,
+ *          and a second pass, which gives the same codewords, writes them, so the codewords are never
+ *          held in memory: -e costs a second LZW pass per chunk, not memory. A flag bit per chunk falls
+ *          back to the plain codewords whenever the code lengths would cost more than they save.
  * 
  *  Trade Off: One notable trade-off is the overhead associated with maintaining and transmitting the dictionary alongside the compressed data. 
  *          While the dictionary enables efficient compression by representing repetitive sequences with shorter codes, 
@@ -36,86 +69,243 @@
  *  
  *
  *************************************************************************/
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
-
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public class SchubsL {
-    private static final int R = 256; // number of input chars
-    private static final int L = 4096; // number of codewords = 2^W
-    private static final int W = 500; // codeword width
+    static final int R = 256; // number of input chars, R is also the EOF codeword
+    static final int CLEAR = R + 1; // codeword that empties the dictionary
+    private static final int W = 16; // maximum codeword width unless asked otherwise
+
+    // every binary .ll file starts with MAGIC, a version and the maximum codeword width in 8 bits each
+    static final int MAGIC = 0x4C4C; // "LL"
+    static final int VERSION_BINARY = 2; // variable width binary codes ending in the EOF codeword
+    static final int VERSION_CLEAR = 3; // as VERSION_BINARY, with the CLEAR codeword
+    static final int VERSION_CHUNKS = 4; // independent version 3 chunks with an index, see compressChunks
+    static final int VERSION_ENTROPY = 5; // version 4 chunks, the high bits of their codes Huffman coded
+    static final int MIN_WIDTH = 9; // codes of single bytes and EOF need 9 bits
+    static final int MAX_WIDTH = 20; // widest codes allowed
+
+    // version 5 Huffman codes the top HIGH_BITS bits of every codeword at its current width,
+    // the bits below follow as they are
+    static final int HIGH_BITS = 8;
+
+    // uncompressed bytes per chunk in the chunk format
+    static final int CHUNK_SIZE = 1 << 22;
+
+    // the chunk format ends with an index like the SchubsH block format:
+    // INDEX_ENTRY_SIZE bytes per chunk, then long offset of the index, int INDEX_MAGIC
+    static final int INDEX_MAGIC = 0x4C4C4958; // "LLIX"
+
+    // bytes read from the input per call
+    private static final int BUFFER_SIZE = 1 << 16;
 
     public static void compress(String inputFile, String outputFile) throws FileNotFoundException {
+        compress(inputFile, outputFile, W);
+    }
+
+    // compress a file with codewords of at most maxWidth bits
+    public static void compress(String inputFile, String outputFile, int maxWidth) throws FileNotFoundException {
+        if (maxWidth < MIN_WIDTH || maxWidth > MAX_WIDTH)
+            throw new IllegalArgumentException("Maximum code width must be between " + MIN_WIDTH + " and "
+                    + MAX_WIDTH + ": " + maxWidth);
         File file = new File(inputFile);
         if (!file.exists()) {
             throw new FileNotFoundException("File not found: " + inputFile);
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file));
-                DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(outputFile))) {
+        try (InputStream in = new FileInputStream(file); OutputStream out = new FileOutputStream(outputFile)) {
+            compress(in, out, maxWidth);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            int character;
-            StringBuilder input = new StringBuilder();
-            while ((character = reader.read()) != -1) {
-                input.append((char) character);
-            }
+    // compress a byte stream into a .ll stream, reading through one fixed buffer
+    public static void compress(InputStream in, OutputStream os) throws IOException {
+        compress(in, os, W);
+    }
 
-            if (input.length() == 0) {
-                // If the input file is empty, write an empty string to the output file
-                outputStream.writeUTF("");
-                return;
-            }
+    // compress a byte stream with codewords of at most maxWidth bits
+    public static void compress(InputStream in, OutputStream os, int maxWidth) throws IOException {
+        if (maxWidth < MIN_WIDTH || maxWidth > MAX_WIDTH)
+            throw new IllegalArgumentException("Maximum code width must be between " + MIN_WIDTH + " and "
+                    + MAX_WIDTH + ": " + maxWidth);
+        BitWriter out = new BitWriter(os);
+        out.write(MAGIC, 16);
+        out.write(VERSION_CLEAR, 8);
+        out.write(maxWidth, 8);
 
-            HashMap<String, Integer> st = new HashMap<>();
-            for (int i = 0; i < R; i++) {
-                st.put("" + (char) i, i);
-            }
-            int code = R + 1; // R is codeword for EOF
-
-            StringBuilder compressedData = new StringBuilder();
-            String current = "";
-            for (int i = 0; i < input.length(); i++) {
-                char nextChar = input.charAt(i);
-                String combined = current + nextChar;
-                if (st.containsKey(combined)) {
-                    current = combined;
-                } else {
-                    compressedData.append(st.get(current)).append(" ");
-                    if (code < L) {
-                        st.put(combined, code++);
-                    }
-                    current = "" + nextChar;
-                }
-            }
-            if (!current.equals("")) {
-                compressedData.append(st.get(current));
-            }
+        LZWEncoder encoder = new LZWEncoder(maxWidth, out::write);
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1)
+            encoder.encode(buf, 0, n);
+        encoder.finish();
+        out.flush();
+    }
+
+    // compress a file as independent chunks encoded in parallel, each with its own dictionary
+    public static void compressChunks(String inputFile, String outputFile, int maxWidth, int chunkSize)
+            throws FileNotFoundException {
+        compressChunks(inputFile, outputFile, VERSION_CHUNKS, maxWidth, chunkSize);
+    }
 
-            outputStream.writeUTF(compressedData.toString());
+    // compress a file as chunks, version 5 adds the Huffman stage for the codes of every chunk
+    public static void compressChunks(String inputFile, String outputFile, int version, int maxWidth,
+            int chunkSize) throws FileNotFoundException {
+        boolean entropy = version == VERSION_ENTROPY;
+        if (maxWidth < MIN_WIDTH || maxWidth > MAX_WIDTH)
+            throw new IllegalArgumentException("Maximum code width must be between " + MIN_WIDTH + " and "
+                    + MAX_WIDTH + ": " + maxWidth);
+        File file = new File(inputFile);
+        if (!file.exists()) {
+            throw new FileNotFoundException("File not found: " + inputFile);
+        }
+
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                OutputStream os = new FileOutputStream(outputFile)) {
+            // version 4 and 5: varint length, varint chunk count, then the chunks in the SchubsH block layout
+            BitWriter out = new BitWriter(os);
+            out.write(MAGIC, 16);
+            out.write(version, 8);
+            out.write(maxWidth, 8);
+            SchubsH.writeBlocks(in, inputFile, chunkSize, out, INDEX_MAGIC,
+                    data -> encodeChunk(data, maxWidth, entropy));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    // codewords of one chunk with a fresh dictionary, ending in EOF and padded to a whole byte;
+    // with entropy a flag bit tells if the codewords follow as they are or through a Huffman code
+    static byte[] encodeChunk(byte[] data, int maxWidth, boolean entropy) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(data.length / 2);
+        BitWriter out = new BitWriter(payload);
+        if (!entropy) {
+            LZWEncoder encoder = new LZWEncoder(maxWidth, out::write);
+            encoder.encode(data, 0, data.length);
+            encoder.finish();
+            out.flush();
+            return payload.toByteArray();
+        }
+
+        // a first pass only counts, LZW gives the same codewords again, so none of them are kept
+        CodeCounts codes = new CodeCounts();
+        LZWEncoder counter = new LZWEncoder(maxWidth, codes);
+        counter.encode(data, 0, data.length);
+        counter.finish();
+
+        // the code lengths have to pay for themselves, otherwise the plain codewords are smaller
+        int[] len = SchubsH.codeLengths(codes.freq, SchubsH.MAX_CODE_LENGTH);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        BitWriter lengths = new BitWriter(header);
+        CanonicalCode.writeLengths(len, lengths);
+        long huffmanBits = lengths.position() * 8 + codes.lowBits;
+        for (int s = 0; s < R; s++)
+            huffmanBits += codes.freq[s] * len[s];
+
+        LZWEncoder encoder;
+        if (huffmanBits < codes.bits) {
+            out.write(true);
+            CanonicalCode.writeLengths(len, out);
+            int[] code = CanonicalCode.codes(len);
+            encoder = new LZWEncoder(maxWidth, (codeword, width) -> {
+                int low = width - HIGH_BITS;
+                int high = codeword >>> low;
+                out.write(code[high], len[high]);
+                out.write(codeword, low);
+            });
+        } else {
+            out.write(false);
+            encoder = new LZWEncoder(maxWidth, out::write);
+        }
+        encoder.encode(data, 0, data.length);
+        encoder.finish();
+        out.flush();
+        return payload.toByteArray();
+    }
+
+    // the size of the codewords of a chunk, and the counts of their high bits
+    private static final class CodeCounts implements LZWEncoder.CodeWriter {
+        private long bits; // size of the plain codewords
+        private long lowBits; // size of the bits below the high bits
+        private final long[] freq = new long[R]; // of the high bits
+
+        @Override
+        public void write(int codeword, int width) {
+            bits += width;
+            lowBits += width - HIGH_BITS;
+            freq[codeword >>> (width - HIGH_BITS)]++;
+        }
+    }
+
+    // width of the n-th codeword after a clear, first is the first code the dictionary assigns:
+    // wide enough for every code the dictionary can hold by then, the decoder adds its entries
+    // one codeword later so this is the same on both sides
+    static int width(long n, int first, int maxWidth) {
+        long largest = Math.min(first - 1 + n, (1L << maxWidth) - 1);
+        return 64 - Long.numberOfLeadingZeros(largest);
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("    Usage: java SchubsL file1 file2 file3 ... OR java SchubsL <GLOB>");
+            System.out.println("    Usage: java SchubsL [-w bits] [-c|-e] file1 file2 file3 ... OR java SchubsL [-w bits] [-c|-e] <GLOB> OR java SchubsL [-w bits] -");
+            System.out.println("    -w: maximum code width, " + MIN_WIDTH + " to " + MAX_WIDTH + " (default " + W + ")");
+            System.out.println("    -c: 4 MB chunks with their own dictionaries, compressed on all cores");
+            System.out.println("    -e: as -c, with the high bits of every code Huffman coded");
             System.out.println("    file1: file to be compressed");
             System.out.println("    file2: compressed file");
             System.out.println("    file3: file to be compressed ...");
             System.out.println("    Incorrect number of arguments.");
             throw new IllegalArgumentException("Invalid argument");
         }
-        for (String filename : args) {
+        // -w picks the maximum codeword width, -c compresses files as chunks on all cores,
+        // -e also Huffman codes the codewords of every chunk
+        int maxWidth = W;
+        boolean chunks = false;
+        boolean entropy = false;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-") && !args[first].equals("-")) {
+            if (args[first].equals("-w") && first + 1 < args.length) {
+                maxWidth = Integer.parseInt(args[first + 1]);
+                first += 2;
+            } else if (args[first].equals("-c")) {
+                chunks = true;
+                first++;
+            } else if (args[first].equals("-e")) {
+                chunks = true;
+                entropy = true;
+                first++;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[first]);
+            }
+        }
+        if (args.length == first + 1 && args[first].equals("-")) {
+            try {
+                compress(System.in, System.out, maxWidth);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        for (int i = first; i < args.length; i++) {
+            String filename = args[i];
             String outputFileName = filename + ".ll";
             try {
-                compress(filename, outputFileName);
+                if (chunks)
+                    compressChunks(filename, outputFileName, entropy ? VERSION_ENTROPY : VERSION_CHUNKS, maxWidth,
+                            CHUNK_SIZE);
+                else
+                    compress(filename, outputFileName, maxWidth);
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
             }
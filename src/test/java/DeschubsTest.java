@@ -3,9 +3,19 @@
  *  Compilation:  mvn compile
  *  Execution:    mvn test
  *  Tests:        - decompressHuffman: tests to decompress a .hh file and checks if it is the same as the original file
+ *                - decompressHuffmanCanonical: round trips canonical .hh files and rejects code lengths that do not
+ *                                              make a prefix code
  *                - decompressLZW: tests to decompress a .ll file and checks if it is the same as the original file
- *                - decompressTars: tests to decompress a .zh file into .hh files then into the original files and checks
+ *                - decompressLZWWidths: round trips .ll files with code widths from 9 to 20 bits, through dictionary
+ *                                       clears, and decodes a version 2 file without them
+ *                - decompressLZWChunks: round trips .ll files of independent chunks decoded in parallel, with
+ *                                       and without Huffman coded codes
+ *                - decompressTars: tests to decompress a .zh file into the original files and checks
  *                                  if it is the same as the original file
+ *                - decompressTarsDirectory: lists a .zh archive and extracts one entry or all of them through its
+ *                                           central directory and memory mapped slices, and walks a legacy archive
+ *                                           without one
+ *                - decompressTarsUnsafeNames: refuses archive entries whose names are absolute or climb out with ..
  *                - testWrongNumberOfArguments: tests to see if the program throws an IllegalArgumentException if the 
  *                                              wrong number of arguments are given
  * 
@@ -20,15 +30,11 @@
  *  Command Line Proof Example:
  *                Test: decompressTars
  *                      Extracting file: src\DeschubsTests\DeschubsTars.txt.hh (96).
- *                          src\DeschubsTests\DeschubsTars.txt.hh extracted successfully.
- *                          File src\DeschubsTests\DeschubsTars.txt.hh closed successfully.
  *                      src\DeschubsTests\DeschubsTars.txt
- *                          New file being created
+ *                          src\DeschubsTests\DeschubsTars.txt.hh extracted successfully.
  *                      Extracting file: src\DeschubsTests\DeschubsTars1.txt.hh (189).
- *                          src\DeschubsTests\DeschubsTars1.txt.hh extracted successfully.
- *                          File src\DeschubsTests\DeschubsTars1.txt.hh closed successfully.
  *                      src\DeschubsTests\DeschubsTars1.txt
- *                          New file being created
+ *                          src\DeschubsTests\DeschubsTars1.txt.hh extracted successfully.
  *                      Decompression and Untars successful            
  *  
  *  Ethan Spindler
@@ -45,6 +51,7 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import java.io.*;
@@ -144,6 +151,381 @@ public class DeschubsTest {
         }
     }
 
+    @Test
+    public void decompressTarsDirectory() throws IOException {
+        System.out.println("Test: decompressTarsDirectory");
+        String dir = "zhDirectory";
+        new File(dir).mkdir();
+        Files.copy(Paths.get("src/SchubsArcTest/blue.txt"), Paths.get(dir, "blue.txt"),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(Paths.get("src/SchubsArcTest/blee.txt"), Paths.get(dir, "blee.txt"),
+                StandardCopyOption.REPLACE_EXISTING);
+        SchubsArc.main(new String[] { dir, dir + "/blue.txt", dir + "/blee.txt" });
+        String archive = dir + File.separator + dir + ".zh";
+
+        // the directory at the end names every entry with its sizes
+        try (ArchiveReader reader = new ArchiveReader(archive)) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(2, entries.size());
+            assertEquals(dir + "/blee.txt.hh", entries.get(1).name);
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            SchubsH.compress(dir + "/blee.txt", entry, SchubsH.VERSION_CANONICAL, SchubsH.MAX_CODE_LENGTH);
+            assertEquals(entry.size(), entries.get(1).size);
+            assertEquals(new File(dir + "/blee.txt").length(), entries.get(1).originalSize);
+
+            // the mapped slice of an entry is exactly its .hh data
+            java.nio.ByteBuffer slice = reader.slice(entries.get(1));
+            assertTrue(slice.isReadOnly());
+            byte[] data = new byte[slice.remaining()];
+            slice.get(data);
+            assertArrayEquals(entry.toByteArray(), data);
+        }
+        // the directory reads the same from the file as from the mapping
+        try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(Paths.get(archive))) {
+            assertEquals(2, ArchiveDirectory.read(in).entries().size());
+        }
+        Deschubs.main(new String[] { "-l", archive });
+
+        // extract a single entry, then all of them
+        byte[] blue = Files.readAllBytes(Paths.get(dir, "blue.txt"));
+        byte[] blee = Files.readAllBytes(Paths.get(dir, "blee.txt"));
+        for (String name : new String[] { "blue.txt", "blue.txt.hh", "blee.txt", "blee.txt.hh" })
+            deleteFile(dir + "/" + name);
+        Deschubs.main(new String[] { archive, dir + "/blee.txt.hh" });
+        assertArrayEquals(blee, Files.readAllBytes(Paths.get(dir, "blee.txt")));
+        assertFalse(new File(dir + "/blue.txt").exists());
+        Deschubs.main(new String[] { archive });
+        assertArrayEquals(blue, Files.readAllBytes(Paths.get(dir, "blue.txt")));
+        // entries are decoded straight from the archive, no .hh file is written
+        assertFalse(new File(dir + "/blue.txt.hh").exists());
+
+        // archives from before the directory are walked entry by entry
+        String legacy = "src" + File.separator + "DeschubsTests" + File.separator + "DeschubsTests.zh";
+        try (ArchiveReader reader = new ArchiveReader(legacy)) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(2, entries.size());
+            assertEquals("src\\DeschubsTests\\DeschubsTars.txt.hh", entries.get(0).name);
+            assertEquals(96, entries.get(0).size);
+        }
+
+        // Clean up
+        for (String name : new String[] { "blue.txt", "blue.txt.hh", "blee.txt", "blee.txt.hh", dir + ".zh" })
+            deleteFile(dir + "/" + name);
+        new File(dir).delete();
+    }
+
+    @Test
+    public void decompressTarsUnsafeNames() throws IOException {
+        System.out.println("Test: decompressTarsUnsafeNames");
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        SchubsH.compress("src/SchubsArcTest/blue.txt", data, SchubsH.VERSION_CANONICAL, SchubsH.MAX_CODE_LENGTH);
+        String evil = "zhEvil" + System.nanoTime() + ".txt";
+
+        // an archive whose entry climbs out of the working directory, or starts at the root, is refused
+        for (String name : new String[] { "../" + evil + ".hh", "a/../../" + evil + ".hh",
+                new File(evil).getAbsolutePath() + ".hh" }) {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            java.io.DataOutputStream out = new java.io.DataOutputStream(archive);
+            out.writeInt(name.length());
+            out.writeByte(255);
+            out.writeBytes(name);
+            out.writeByte(255);
+            out.writeLong(data.size());
+            out.writeByte(255);
+            out.write(data.toByteArray());
+            Files.write(Paths.get("zhUnsafe.zh"), archive.toByteArray());
+            try {
+                Deschubs.main(new String[] { "zhUnsafe.zh" });
+                fail("unsafe entry name " + name + " extracted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Unsafe entry name"));
+            }
+            assertFalse(new File("../" + evil).exists());
+            assertFalse(new File(evil).exists());
+        }
+        deleteFile("zhUnsafe.zh");
+
+        // names that stay inside are kept, others lose their root and leading .. when archived
+        assertTrue(ArchiveDirectory.isSafeName("a/../b.txt.hh"));
+        assertTrue(ArchiveDirectory.isSafeName("src\\DeschubsTests\\DeschubsTars.txt.hh"));
+        assertEquals("src/blee.txt", ArchiveDirectory.entryName("../src/blee.txt"));
+        assertEquals("tmp/blee.txt", ArchiveDirectory.entryName("/tmp/./blee.txt"));
+        assertEquals("blee.txt", ArchiveDirectory.entryName("C:\\..\\blee.txt"));
+    }
+
+    @Test
+    public void decompressHuffmanPacked() throws IOException {
+        System.out.println("Test: decompressHuffmanPacked");
+        // compress with the bit-packed trie format and check the round trip is exact
+        assertRoundTrip("src/SchubsArcTest/blue.txt", SchubsH.VERSION_TRIE);
+    }
+
+    @Test
+    public void decompressHuffmanCanonical() throws IOException {
+        System.out.println("Test: decompressHuffmanCanonical");
+        // compress with canonical code lengths and check the round trip is exact
+        assertRoundTrip("src/SchubsArcTest/blue.txt", SchubsH.VERSION_CANONICAL);
+        assertRoundTrip("src/SchubsHTests/test2.txt", SchubsH.VERSION_CANONICAL);
+
+        // three 1-bit codes do not make a prefix code, the header is rejected before decoding
+        int[] len = new int[CanonicalCode.R];
+        len['a'] = len['b'] = len['c'] = 1;
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        BitWriter out = new BitWriter(header);
+        CanonicalCode.writeLengths(len, out);
+        out.flush();
+        try {
+            CanonicalCode.readLengths(new BitReader(header.toByteArray(), 0, header.size()));
+            fail("over-subscribed code lengths accepted");
+        } catch (IOException e) {
+            assertEquals("Invalid code length header", e.getMessage());
+        }
+    }
+
+    @Test
+    public void decompressHuffmanLongCodes() throws IOException {
+        System.out.println("Test: decompressHuffmanLongCodes");
+        // Fibonacci frequencies give codes longer than the primary decode table
+        String source = "fibonacci.txt";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int a = 1, b = 1;
+        for (int symbol = 0; symbol < 22; symbol++) {
+            for (int i = 0; i < a; i++)
+                bytes.write('a' + symbol);
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        Files.write(Paths.get(source), bytes.toByteArray());
+
+        assertRoundTrip(source, SchubsH.VERSION_CANONICAL);
+        assertRoundTrip(source, SchubsH.VERSION_TRIE);
+        deleteFile(source);
+    }
+
+    @Test
+    public void decompressHuffmanBlocks() throws IOException {
+        System.out.println("Test: decompressHuffmanBlocks");
+        // small blocks so the file is split and every block gets its own table
+        String filename = "blocks.txt";
+        Files.copy(Paths.get("src/SchubsArcTest/blue.txt"), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING);
+        SchubsH.compressBlocks(filename, filename + ".hh", 1000, SchubsH.MAX_CODE_LENGTH);
+        new File(filename).delete();
+
+        Deschubs.expand(filename + ".hh");
+        assertArrayEquals(Files.readAllBytes(Paths.get("src/SchubsArcTest/blue.txt")),
+                Files.readAllBytes(Paths.get(filename)));
+
+        // a block length that does not add up to the file length is caught before any output is written
+        byte[] packed = Files.readAllBytes(Paths.get(filename + ".hh"));
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(packed);
+        int first = (int) buffer.getLong(packed.length - SchubsH.FOOTER_SIZE);
+        buffer.putInt(first + 20, buffer.getInt(first + 20) + 1);
+        Files.write(Paths.get(filename + ".hh"), packed);
+        deleteFile(filename);
+        Deschubs.expand(filename + ".hh");
+        assertFalse(new File(filename).exists());
+
+        // Clean up
+        deleteFile(filename);
+        deleteFile(filename + ".hh");
+    }
+
+    @Test
+    public void decompressHuffmanStreams() throws IOException {
+        System.out.println("Test: decompressHuffmanStreams");
+        // blocks of 4 interleaved streams, including blocks too small to fill all 4
+        for (int size : new int[] { 1000, 5, 1 }) {
+            String filename = "streams.txt";
+            Files.copy(Paths.get("src/SchubsArcTest/blue.txt"), Paths.get(filename),
+                    StandardCopyOption.REPLACE_EXISTING);
+            SchubsH.compressBlocks(filename, filename + ".hh", SchubsH.VERSION_STREAMS, size,
+                    SchubsH.MAX_CODE_LENGTH);
+            new File(filename).delete();
+
+            Deschubs.expand(filename + ".hh");
+            assertArrayEquals(Files.readAllBytes(Paths.get("src/SchubsArcTest/blue.txt")),
+                    Files.readAllBytes(Paths.get(filename)));
+
+            // Clean up
+            deleteFile(filename);
+            deleteFile(filename + ".hh");
+        }
+    }
+
+    @Test
+    public void decompressHuffmanAdaptive() throws IOException {
+        System.out.println("Test: decompressHuffmanAdaptive");
+        // one pass adaptive codes, through files and through plain streams
+        assertRoundTrip("src/SchubsArcTest/blue.txt", SchubsH.VERSION_ADAPTIVE);
+        assertRoundTrip("src/SchubsHTests/test2.txt", SchubsH.VERSION_ADAPTIVE);
+
+        // every byte value, skewed so the tree is reordered many times, and empty input
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i % 7 == 0 ? i : i % 5);
+        for (byte[] input : new byte[][] { data, new byte[0] }) {
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            AdaptiveHuffman.compress(new ByteArrayInputStream(input), packed);
+            BitReader in = new BitReader(new ByteArrayInputStream(packed.toByteArray()));
+            assertEquals(SchubsH.MAGIC, in.readBits(16));
+            assertEquals(SchubsH.VERSION_ADAPTIVE, in.readBits(8));
+            ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+            AdaptiveHuffman.expand(in, expanded);
+            assertArrayEquals(input, expanded.toByteArray());
+        }
+    }
+
+    @Test
+    public void decompressLZWBinary() throws IOException {
+        System.out.println("Test: decompressLZWBinary");
+        // well past the 65,535 byte limit of the old text format, the dictionary fills up
+        byte[] text = Files.readAllBytes(Paths.get("src/SchubsArcTest/blue.txt"));
+        ByteArrayOutputStream large = new ByteArrayOutputStream();
+        while (large.size() < 200000)
+            large.write(text);
+        assertLZWRoundTrip(large.toByteArray());
+
+        // every byte value, a single byte and nothing at all
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (i * 7);
+        assertLZWRoundTrip(bytes);
+        assertLZWRoundTrip(new byte[] { 'x' });
+        assertLZWRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void decompressLZWWidths() throws IOException {
+        System.out.println("Test: decompressLZWWidths");
+        // text, then noise that spoils the dictionary, then text again: small widths fill up and clear
+        byte[] text = Files.readAllBytes(Paths.get("src/SchubsArcTest/blue.txt"));
+        ByteArrayOutputStream mixed = new ByteArrayOutputStream();
+        while (mixed.size() < 100000)
+            mixed.write(text);
+        java.util.Random random = new java.util.Random(375);
+        byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+        mixed.write(noise);
+        while (mixed.size() < 200000)
+            mixed.write(text);
+        for (int width : new int[] { SchubsL.MIN_WIDTH, 12, 16, SchubsL.MAX_WIDTH })
+            assertLZWRoundTrip(mixed.toByteArray(), width);
+
+        // a version 2 file has no CLEAR codeword and codes start at 257: "a" "b" "ab" EOF
+        ByteArrayOutputStream old = new ByteArrayOutputStream();
+        BitWriter out = new BitWriter(old);
+        out.write(SchubsL.MAGIC, 16);
+        out.write(SchubsL.VERSION_BINARY, 8);
+        out.write(12, 8);
+        for (int codeword : new int[] { 'a', 'b', 257, 256 })
+            out.write(codeword, 9);
+        out.flush();
+        Files.write(Paths.get("lzwVersion2.ll"), old.toByteArray());
+        Deschubs.main(new String[] { "lzwVersion2.ll" });
+        assertArrayEquals("abab".getBytes(), Files.readAllBytes(Paths.get("lzwVersion2")));
+
+        // Clean up
+        deleteFile("lzwVersion2");
+        deleteFile("lzwVersion2.ll");
+    }
+
+    @Test
+    public void decompressLZWChunks() throws IOException {
+        System.out.println("Test: decompressLZWChunks");
+        byte[] text = Files.readAllBytes(Paths.get("src/SchubsArcTest/blue.txt"));
+        ByteArrayOutputStream large = new ByteArrayOutputStream();
+        while (large.size() < 200000)
+            large.write(text);
+        byte[] data = large.toByteArray();
+        String filename = "lzwChunks";
+        Files.write(Paths.get(filename + ".txt"), data);
+
+        // many chunks and a last chunk shorter than the others
+        for (int chunkSize : new int[] { 50000, 30001 }) {
+            SchubsL.compressChunks(filename + ".txt", filename + ".ll", 12, chunkSize);
+            byte[] packed = Files.readAllBytes(Paths.get(filename + ".ll"));
+            assertEquals(SchubsL.VERSION_CHUNKS, packed[2]);
+            Deschubs.main(new String[] { filename + ".ll" });
+            assertArrayEquals(data, Files.readAllBytes(Paths.get(filename)));
+        }
+
+        // chunks of a whole dictionary's worth compress nearly as well as one stream
+        SchubsL.compressChunks(filename + ".txt", filename + ".ll", 12, 100000);
+        long chunked = new File(filename + ".ll").length();
+        SchubsL.compress(filename + ".txt", filename + ".ll", 12);
+        assertTrue(chunked < new File(filename + ".ll").length() * 11 / 10);
+
+        // the Huffman stage never makes a chunk larger, and here it makes them smaller
+        for (int width : new int[] { SchubsL.MIN_WIDTH, 12, SchubsL.MAX_WIDTH }) {
+            SchubsL.compressChunks(filename + ".txt", filename + ".ll", width, 50000);
+            long plain = new File(filename + ".ll").length();
+            SchubsL.compressChunks(filename + ".txt", filename + ".ll", SchubsL.VERSION_ENTROPY, width, 50000);
+            assertEquals(SchubsL.VERSION_ENTROPY, Files.readAllBytes(Paths.get(filename + ".ll"))[2]);
+            assertTrue(new File(filename + ".ll").length() < plain);
+            Deschubs.main(new String[] { filename + ".ll" });
+            assertArrayEquals(data, Files.readAllBytes(Paths.get(filename)));
+        }
+
+        // chunks of a single byte
+        Files.write(Paths.get(filename + ".txt"), text);
+        for (int version : new int[] { SchubsL.VERSION_CHUNKS, SchubsL.VERSION_ENTROPY }) {
+            SchubsL.compressChunks(filename + ".txt", filename + ".ll", version, 12, 1);
+            Deschubs.main(new String[] { filename + ".ll" });
+            assertArrayEquals(text, Files.readAllBytes(Paths.get(filename)));
+        }
+
+        // an empty file has no chunks
+        Files.write(Paths.get(filename + ".txt"), new byte[0]);
+        SchubsL.compressChunks(filename + ".txt", filename + ".ll", 12, 50000);
+        Deschubs.main(new String[] { filename + ".ll" });
+        assertEquals(0, new File(filename).length());
+
+        // Clean up
+        deleteFile(filename);
+        deleteFile(filename + ".txt");
+        deleteFile(filename + ".ll");
+    }
+
+    // Helper method to compress bytes with SchubsL, expand them again and compare
+    private void assertLZWRoundTrip(byte[] data) throws IOException {
+        assertLZWRoundTrip(data, 16);
+    }
+
+    // Helper method to compress bytes with codes of at most maxWidth bits, expand them again and compare
+    private void assertLZWRoundTrip(byte[] data, int maxWidth) throws IOException {
+        String filename = "lzwRoundTrip";
+        Files.write(Paths.get(filename + ".txt"), data);
+        SchubsL.compress(filename + ".txt", filename + ".ll", maxWidth);
+        Deschubs.main(new String[] { filename + ".ll" });
+        assertArrayEquals(data, Files.readAllBytes(Paths.get(filename)));
+        // narrow codes cannot hold enough of the text to halve it
+        if (data.length > 10000 && maxWidth >= 12)
+            assertTrue(new File(filename + ".ll").length() < data.length / 2);
+
+        // Clean up
+        deleteFile(filename);
+        deleteFile(filename + ".txt");
+        deleteFile(filename + ".ll");
+    }
+
+    // Helper method to compress a copy of a file, expand it again and compare
+    private void assertRoundTrip(String source, int version) throws IOException {
+        String filename = "roundTrip.txt";
+        Files.copy(Paths.get(source), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING);
+        SchubsH.compress(filename, filename + ".hh", version);
+        new File(filename).delete();
+
+        Deschubs.expand(filename + ".hh");
+        byte[] original = Files.readAllBytes(Paths.get(source));
+        assertArrayEquals(original, Files.readAllBytes(Paths.get(filename)));
+        assertTrue(new File(filename + ".hh").length() < original.length);
+
+        // Clean up
+        deleteFile(filename);
+        deleteFile(filename + ".hh");
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testWrongNumberOfArguments() throws IOException {
         // Test case for providing the wrong number of arguments
@@ -5,6 +5,7 @@
  *  Tests:        - checkHuffmanGlob: tests to see if SchubsH.java can compress multiple files as arguments
  *                - checkLZWGlob: tests to see if SchubsL.java can compress multiple files as arguments
  *                - CheckTarsGlob: tests to see if SchubsArc.java can archive multiple files as arguments
+ *                - checkTarsPattern: tests to see if SchubsArc.java can match quoted glob patterns itself, with and without **
  * 
  *  Description:  This program tests against SchubsH.java|SchubsL.java|SchubsArc.java to make sure it works if given multiple files as arguments
  * 
@@ -74,4 +75,29 @@ public class GlobTest {
         SchubsArc.main(args);
         assertTrue(new File("src/GlobTests/TarsGlob/TarsGlob.zh").exists());
     }
+
+    @Test
+    public void checkTarsPattern() throws IOException {
+        System.out.println("Test: checkTarsPattern");
+        // check if SchubsArc matches a glob pattern itself, as the shell would not
+        String[] args = new String[] { "src/GlobTests/TarsGlob", "src/GlobTests/globtest*.txt" };
+        SchubsArc.main(args);
+        try (ArchiveReader reader = new ArchiveReader("src/GlobTests/TarsGlob/TarsGlob.zh")) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(3, entries.size());
+            for (int i = 0; i < 3; i++)
+                assertEquals(Paths.get("src/GlobTests/globtest" + (i + 1) + ".txt") + ".hh", entries.get(i).name);
+        }
+
+        // ** crosses directories, a single * does not
+        args = new String[] { "src/GlobTests/TarsGlob", "src/**/globtest1.txt", "src/*/globtest2.txt",
+                "src/*/nothing*.txt" };
+        SchubsArc.main(args);
+        try (ArchiveReader reader = new ArchiveReader("src/GlobTests/TarsGlob/TarsGlob.zh")) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(2, entries.size());
+            assertEquals(Paths.get("src/GlobTests/globtest1.txt") + ".hh", entries.get(0).name);
+            assertEquals(Paths.get("src/GlobTests/globtest2.txt") + ".hh", entries.get(1).name);
+        }
+    }
 }
@@ -5,11 +5,16 @@
  *  Tests:        - testEmptyFilesToTar: tests when the file(s) to be Tars'd are empty
  *                - testNonExistentFilesToTar: tests when the file(s) to be Tars'd do not exist
  *                - testDestinationArchiveExists: tests when the destination archive already exists
- *                - testDirectoryAsFileToTar: tests when one of the files to be Tars'd is instead a directory and should therefore fail
+ *                - testDirectoryAsFileToTar: tests when one of the files to be Tars'd is instead a directory, which is archived
+ *                                            recursively in name order and extracted back into its subdirectories
  *                - testFilesWithManyCharacters: tests when the file(s) to be Tars'd contain many characters
  *                - testFilesWithSpacesAndLineEndings: tests when the file(s) to be Tars'd contain characters such as spaces and line
  *                - testCombinationOfFiles: tests any combination of the files to be Tars'd containing spaces, line
  *                - testWrongNumberOfArguments: tests when the user passes in the wrong amount of arguments
+ *                - testManyFilesInOrder: tests that files compressed in parallel are archived in the order given, a file
+ *                                        given twice once
+ *                - testDuplicateEntryNames: tests that inputs that would share an entry name are archived once
+ *                - testLargeFileStreamed: tests that a file too large to compress in memory is streamed into the archive
  * 
  * 
  *  Description:  This program tests against SchubsArc.java to make sure it can archive files after compressing them with Huffman encoding
@@ -25,7 +30,6 @@
  *                      File exists
  *                      File is empty
  *                      File src/SchubsArcTest/empty.txt is empty.
- *                      File src/SchubsArcTest/empty.txt.hh does not exist or is not a regular file.
  *                      Archive src/SchubsArcTest\SchubsArcTest.zh created successfully.
  *                      Archive Test SHOULD pass
  *               Test: testFilesWithSpacesAndLineEndings
@@ -91,6 +95,21 @@ public class SchubsArcTest {
         String archiveResults = "src/SchubsArcTest/SchubsArcTest.zh";
         File compressedFile = new File(archiveResults);
         assertTrue(compressedFile.exists());
+        // an empty file gets no entry
+        try (ArchiveReader reader = new ArchiveReader(archiveResults)) {
+            assertTrue(reader.directory().entries().isEmpty());
+        }
+
+        // nor does it between files that are not empty
+        SchubsArc.main(new String[] { archiveName, "src/SchubsArcTest/blue.txt", filename,
+                "src/SchubsArcTest/blee.txt" });
+        try (ArchiveReader reader = new ArchiveReader(archiveResults)) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(2, entries.size());
+            assertEquals("src/SchubsArcTest/blue.txt.hh", entries.get(0).name);
+            assertEquals("src/SchubsArcTest/blee.txt.hh", entries.get(1).name);
+            assertNull(reader.directory().find(filename + ".hh"));
+        }
         if (compressedFile.exists()) {
             System.out.println("    Archive Test SHOULD pass");
         }
@@ -124,21 +143,49 @@ public class SchubsArcTest {
         assertTrue(file.exists());
     }
 
-    @Test(expected = IllegalArgumentException.class)
+    @Test
     public void testDirectoryAsFileToTar() throws IOException {
-        // Test when one of the files to be Tars'd is instead a directory and should
-        // therefore fail
+        // Test when one of the files to be Tars'd is instead a directory, which is
+        // archived with every file under it
         System.out.println("Test: testDirectoryAsFileToTar");
-        // Add your test code here
-        String filename = "src/SchubsArcTest";
-        File folder = new File(filename);
-        String archiveName = "src";
-        if (folder.isDirectory()) {
-            System.out.println("    File is a directory - Exception thrown");
-        } else {
-            System.out.println("    File is not a directory");
+        String dir = "arcTree";
+        String[] names = { "b.txt", "a/z.txt", "a/deep/x.txt", "c/y.txt", "a.txt" };
+        for (String name : names) {
+            Path path = Paths.get(dir, name);
+            Files.createDirectories(path.getParent());
+            Files.write(path, ("contents of " + name + "\n").getBytes());
         }
-        SchubsArc.main(new String[] { archiveName, filename });
+        // the archive is written inside the tree, it must not archive itself
+        SchubsArc.main(new String[] { dir, dir });
+
+        try (ArchiveReader reader = new ArchiveReader(dir + "/" + dir + ".zh")) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            // depth first in name order
+            String[] expected = { "a/deep/x.txt", "a/z.txt", "a.txt", "b.txt", "c/y.txt" };
+            assertEquals(expected.length, entries.size());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(Paths.get(dir, expected[i]) + ".hh", entries.get(i).name);
+                assertEquals(Files.size(Paths.get(dir, expected[i])), entries.get(i).originalSize);
+            }
+        }
+
+        // extracted back into the same subdirectories
+        for (String name : names)
+            Files.delete(Paths.get(dir, name));
+        Deschubs.main(new String[] { dir + "/" + dir + ".zh" });
+        for (String name : names)
+            assertEquals("contents of " + name + "\n", new String(Files.readAllBytes(Paths.get(dir, name))));
+
+        // Clean up
+        deleteTree(new File(dir));
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                deleteTree(child);
+        file.delete();
     }
 
     @Test
@@ -212,4 +259,114 @@ public class SchubsArcTest {
         SchubsArc.main(args);
 
     }
+
+    @Test
+    public void testManyFilesInOrder() throws IOException {
+        // Test that files compressed side by side are archived in the order they were given
+        System.out.println("Test: testManyFilesInOrder");
+        String dir = "arcOrder";
+        new File(dir).mkdir();
+        String[] args = new String[26];
+        args[0] = dir;
+        for (int i = 1; i < args.length; i++) {
+            args[i] = dir + "/file" + (args.length - i) + ".txt";
+            StringBuilder contents = new StringBuilder();
+            for (int line = 0; line < i * 40; line++)
+                contents.append("line ").append(line).append(" of file ").append(i).append('\n');
+            Files.write(Paths.get(args[i]), contents.toString().getBytes());
+        }
+        args[3] = args[2]; // the same file twice
+        SchubsArc.main(args);
+
+        try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel
+                .open(Paths.get(dir, dir + ".zh"))) {
+            java.util.List<ArchiveDirectory.Entry> entries = ArchiveDirectory.read(in).entries();
+            // the file given twice is archived once
+            assertEquals(args.length - 2, entries.size());
+            for (int i = 1, e = 0; i < args.length; i++) {
+                if (i == 3)
+                    continue;
+                assertEquals(args[i] + ".hh", entries.get(e).name);
+                java.io.ByteArrayOutputStream entry = new java.io.ByteArrayOutputStream();
+                SchubsH.compress(args[i], entry, SchubsH.VERSION_CANONICAL, SchubsH.MAX_CODE_LENGTH);
+                assertEquals(entry.size(), entries.get(e++).size);
+                // entries are compressed in memory, no .hh file is left behind
+                assertFalse(new File(args[i] + ".hh").exists());
+            }
+        }
+
+        // Clean up
+        for (File file : new File(dir).listFiles())
+            file.delete();
+        new File(dir).delete();
+    }
+
+    @Test
+    public void testLargeFileStreamed() throws IOException {
+        // Test that a file too large to compress in memory is streamed into the archive between others
+        System.out.println("Test: testLargeFileStreamed");
+        String dir = "arcLarge";
+        new File(dir).mkdir();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            line.append("word").append(i % 17).append(' ');
+        byte[] lineBytes = line.append('\n').toString().getBytes();
+        try (java.io.OutputStream os = new java.io.BufferedOutputStream(
+                new java.io.FileOutputStream(dir + "/large.txt"))) {
+            for (long n = 0; n <= SchubsArc.STREAM_SIZE; n += lineBytes.length)
+                os.write(lineBytes);
+        }
+        Files.write(Paths.get(dir, "small.txt"), lineBytes);
+        Files.write(Paths.get(dir, "small2.txt"), lineBytes);
+        SchubsArc.main(new String[] { dir, dir + "/small.txt", dir + "/large.txt", dir + "/small2.txt" });
+
+        try (ArchiveReader reader = new ArchiveReader(dir + "/" + dir + ".zh")) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(3, entries.size());
+            // the size patched into the entry header agrees with the directory
+            for (ArchiveDirectory.Entry entry : entries) {
+                java.nio.ByteBuffer header = reader.slice(new ArchiveDirectory.Entry(entry.name, 0,
+                        entry.dataOffset - 9, 8, -1, entry.codec));
+                assertEquals(entry.size, header.getLong());
+            }
+            assertEquals(entries.get(1).offset + ArchiveDirectory.HEADER_SIZE + entries.get(1).name.length()
+                    + entries.get(1).size, entries.get(2).offset);
+        }
+
+        // both come back exactly
+        byte[] large = Files.readAllBytes(Paths.get(dir, "large.txt"));
+        Files.delete(Paths.get(dir, "large.txt"));
+        Files.delete(Paths.get(dir, "small.txt"));
+        Deschubs.main(new String[] { dir + "/" + dir + ".zh" });
+        assertArrayEquals(large, Files.readAllBytes(Paths.get(dir, "large.txt")));
+        assertArrayEquals(lineBytes, Files.readAllBytes(Paths.get(dir, "small.txt")));
+
+        // Clean up
+        deleteTree(new File(dir));
+    }
+
+    @Test
+    public void testDuplicateEntryNames() throws IOException {
+        // Test that two inputs archived under the same entry name give one entry, the first
+        System.out.println("Test: testDuplicateEntryNames");
+        String dir = "arcDuplicate";
+        new File(dir).mkdir();
+        Files.write(Paths.get(dir, "a.txt"), "first file\n".getBytes());
+        Files.write(Paths.get(dir, "b.txt"), "second file\n".getBytes());
+        // a.txt again in the walk, b.txt again through ./ and a detour
+        SchubsArc.main(new String[] { dir, dir + "/a.txt", dir, "./" + dir + "/b.txt",
+                dir + "/../" + dir + "/a.txt" });
+
+        try (ArchiveReader reader = new ArchiveReader(dir + "/" + dir + ".zh")) {
+            java.util.List<ArchiveDirectory.Entry> entries = reader.directory().entries();
+            assertEquals(2, entries.size());
+            assertEquals(dir + "/a.txt.hh", entries.get(0).name);
+            assertEquals(dir + "/b.txt.hh", entries.get(1).name);
+        }
+        // the same file by an absolute path and without its root gets the same name
+        assertEquals(ArchiveDirectory.entryName("tmp/x.txt"), ArchiveDirectory.entryName("/tmp/x.txt"));
+
+        // Clean up
+        deleteTree(new File(dir));
+    }
 }
@@ -179,4 +179,99 @@ public class SchubsHTest {
         assertTrue(file2.exists());
     }
 
+    @Test
+    public void testCanonicalHeaderIsSmaller() {
+        System.out.println("Test: testCanonicalHeaderIsSmaller");
+        // code lengths should take less room than the serialized trie
+        String filename = "src/SchubsHTests/test3.txt";
+        File trie = new File("trieHeader.hh");
+        File canonical = new File("canonicalHeader.hh");
+        SchubsH.compress(filename, trie.getPath(), SchubsH.VERSION_TRIE);
+        SchubsH.compress(filename, canonical.getPath(), SchubsH.VERSION_CANONICAL);
+
+        assertTrue(canonical.length() < trie.length());
+
+        // Delete the files
+        trie.delete();
+        canonical.delete();
+    }
+
+    @Test
+    public void testLengthLimitedCodes() {
+        System.out.println("Test: testLengthLimitedCodes");
+        // Fibonacci frequencies would need 29 bit codes without a limit
+        long[] freq = new long[256];
+        int a = 1, b = 1;
+        for (int symbol = 0; symbol < 30; symbol++) {
+            freq[symbol] = a;
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        int[] len = CodeLengths.limited(freq, 12);
+
+        // every code fits and the code is still complete (Kraft sum of exactly 1)
+        long kraft = 0;
+        for (int symbol = 0; symbol < 256; symbol++) {
+            assertTrue(len[symbol] <= 12);
+            assertEquals(freq[symbol] > 0, len[symbol] > 0);
+            if (len[symbol] > 0)
+                kraft += 1L << (12 - len[symbol]);
+        }
+        assertEquals(1L << 12, kraft);
+    }
+
+    @Test
+    public void testHuffmanLengthsAreOptimal() {
+        System.out.println("Test: testHuffmanLengthsAreOptimal");
+        // the in-place builder must cost as many bits as package-merge without a binding limit
+        java.util.Random random = new java.util.Random(375);
+        for (int trial = 0; trial < 200; trial++) {
+            long[] freq = new long[256];
+            int symbols = 1 + random.nextInt(256);
+            for (int i = 0; i < symbols; i++)
+                freq[random.nextInt(256)] = 1 + random.nextInt(trial % 2 == 0 ? 10 : 100000);
+            int[] len = CodeLengths.huffman(freq);
+            int[] optimal = CodeLengths.limited(freq, 31);
+
+            long bits = 0, optimalBits = 0, kraft = 0;
+            for (int symbol = 0; symbol < 256; symbol++) {
+                assertEquals(freq[symbol] > 0, len[symbol] > 0);
+                bits += freq[symbol] * len[symbol];
+                optimalBits += freq[symbol] * optimal[symbol];
+                if (len[symbol] > 0)
+                    kraft += 1L << (31 - len[symbol]);
+            }
+            assertEquals(optimalBits, bits);
+            assertTrue(kraft <= 1L << 31);
+        }
+    }
+
+    @Test
+    public void testHistogram() throws IOException {
+        System.out.println("Test: testHistogram");
+        // long runs of one byte and a tail that does not fill the last group of 4
+        byte[] data = new byte[100003];
+        java.util.Random random = new java.util.Random(375);
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i < 50000 ? 'a' : random.nextInt(256));
+        long[] expected = new long[256];
+        for (byte b : data)
+            expected[b & 0xFF]++;
+
+        assertArrayEquals(expected, Histogram.count(data, 0, data.length));
+        java.nio.ByteBuffer direct = java.nio.ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        long[] freq = new long[256];
+        Histogram.add(direct, freq);
+        assertArrayEquals(expected, freq);
+
+        // a file split into many slices counted in parallel
+        File file = new File("histogram.bin");
+        Files.write(file.toPath(), data);
+        try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(file.toPath())) {
+            assertArrayEquals(expected, Histogram.count(in, data.length, 4096));
+        }
+        file.delete();
+    }
 }
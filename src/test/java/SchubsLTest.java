@@ -9,6 +9,7 @@
  *                - testCompressEmptyFile: tests for compressing an empty file
  *                - testCompressLowercase: tests for compressing a file containing only lowercase characters
  *                - testCompressUppercase: tests for compressing a file containing only uppercase characters
+ *                - testCompressStream: tests that compressing a stream gives the same bytes as compressing the file
  * 
  * 
  * 
@@ -144,6 +145,30 @@ public class SchubsLTest {
         new File(filename).delete();
     }
 
+    // Test for compressing a stream the same way as a file, without reading it all first
+    @Test
+    public void testCompressStream() throws IOException {
+        System.out.println("Test: testCompressStream");
+        // binary data spanning several read buffers
+        byte[] data = new byte[300000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) ((i / 3) % 251 ^ (i % 7));
+        String filename = "stream.bin";
+        java.nio.file.Files.write(new File(filename).toPath(), data);
+        SchubsL.compress(filename, filename + ".ll");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SchubsL.compress(new ByteArrayInputStream(data), out);
+        byte[] packed = out.toByteArray();
+        assertArrayEquals(java.nio.file.Files.readAllBytes(new File(filename + ".ll").toPath()), packed);
+        assertEquals(SchubsL.MAGIC, ((packed[0] & 0xFF) << 8) | (packed[1] & 0xFF));
+        assertEquals(SchubsL.VERSION_CLEAR, packed[2]);
+
+        // Clean up
+        new File(filename).delete();
+        new File(filename + ".ll").delete();
+    }
+
     // Helper method to create a file with specified contents
     private void createFileWithContents(String filename, String contents) throws IOException {
         FileWriter writer = new FileWriter(filename);